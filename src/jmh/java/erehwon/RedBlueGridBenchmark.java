@@ -0,0 +1,157 @@
+package erehwon;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * throughput of the RedBlueGrid hot paths. run through the jmh Gradle task, which adds the gc profiler
+ * for allocation rates; narrow the parameter space with -p, e.g. -p size=64,256
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedBlueGridBenchmark {
+
+    /**
+     * grid parameters shared by every benchmark
+     */
+    @State(Scope.Thread)
+    public static class Params {
+        @Param({"64", "256", "1024", "4096"})
+        public int size;
+        @Param({"1", "3"})
+        public int neighborhoodDistance;
+        @Param({"0.1", "0.3"})
+        public double fractionVacant;
+        @Param({"0.3", "0.6"})
+        public double happinessThreshold;
+
+        static final double FRACTION_RED = 0.5;
+        static final long SEED = 42;
+
+        RedBlueGrid newGrid() {
+            RedBlueGrid grid = new RedBlueGrid(size, neighborhoodDistance, 0, 0, happinessThreshold, SEED);
+            grid.reset(fractionVacant, FRACTION_RED, happinessThreshold, SEED);
+            return grid;
+        }
+    }
+
+    /**
+     * a grid that is only read, built once per trial
+     */
+    @State(Scope.Thread)
+    public static class ReadGrid {
+        RedBlueGrid grid;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Params params) {
+            grid = params.newGrid();
+        }
+    }
+
+    /**
+     * a grid restored to the same unsettled arrangement before every call, so steps never run on a
+     * grid that has already converged. the reset is not measured
+     */
+    @State(Scope.Thread)
+    public static class FreshGrid {
+        RedBlueGrid grid;
+        Params params;
+
+        @Setup(Level.Trial)
+        public void create(Params params) {
+            this.params = params;
+            grid = params.newGrid();
+        }
+
+        @Setup(Level.Invocation)
+        public void restore() {
+            grid.reset(params.fractionVacant, Params.FRACTION_RED, params.happinessThreshold, Params.SEED);
+        }
+    }
+
+    /**
+     * a grid that is only read, classified by one of the scan engines
+     */
+    @State(Scope.Thread)
+    public static class EngineGrid {
+        @Param({"SCALAR", "BITBOARD", "VECTOR"})
+        public ScanEngine scanEngine;
+        RedBlueGrid grid;
+
+        @Setup(Level.Trial)
+        public void setUp(Params params) {
+            grid = params.newGrid();
+            grid.setScanEngine(scanEngine);
+        }
+    }
+
+    @Benchmark
+    public RedBlueGrid constructor(Params params) {
+        return new RedBlueGrid(params.size, params.neighborhoodDistance, params.fractionVacant,
+            Params.FRACTION_RED, params.happinessThreshold, Params.SEED);
+    }
+
+    @Benchmark
+    public RedBlueGrid reset(ReadGrid state, Params params) {
+        state.grid.reset(params.fractionVacant, Params.FRACTION_RED, params.happinessThreshold, Params.SEED);
+        return state.grid;
+    }
+
+    @Benchmark
+    public boolean isHappy(ReadGrid state, Params params) {
+        // walk the grid with a stride coprime to its size so successive calls touch different windows
+        int cell = state.next;
+        state.next = (cell + 7919) % (params.size * params.size);
+        return state.grid.isHappy(cell / params.size, cell % params.size);
+    }
+
+    @Benchmark
+    public double fractionHappy(ReadGrid state) {
+        return state.grid.fractionHappy();
+    }
+
+    @Benchmark
+    public double fractionHappyByEngine(EngineGrid state) {
+        return state.grid.fractionHappy();
+    }
+
+    @Benchmark
+    public RedBlueGrid oneTimeStep(FreshGrid state) {
+        state.grid.oneTimeStep();
+        return state.grid;
+    }
+
+    @Benchmark
+    public RedBlueGrid oneGroupStep(FreshGrid state) {
+        state.grid.oneGroupStep();
+        return state.grid;
+    }
+
+    @Benchmark
+    public RedBlueGrid efficientTimeStep(FreshGrid state) {
+        state.grid.efficientTimeStep();
+        return state.grid;
+    }
+
+    @Benchmark
+    public RedBlueGrid simulate(FreshGrid state) {
+        state.grid.simulate(10);
+        return state.grid;
+    }
+}
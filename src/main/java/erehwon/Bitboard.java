@@ -0,0 +1,238 @@
+package erehwon;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * the happiness rule of RedBlueGrid.isHappy for distance 1 and clipped windows, 64 squares at a time.
+ * every row is kept as two bitmasks per 64 columns, one for red and one for blue residents. the number of
+ * residents of a colour in each 3 x 3 window is added up bit-sliced: the row above, the row and the row
+ * below are summed into two bit planes, and those sums shifted one column left and right into four. the
+ * count is then compared with the smallest count that makes a resident happy, which depends only on the
+ * window size and so is kept as four more planes per kind of row
+ */
+final class Bitboard {
+    private static final long LOW_BITS = 0x0101010101010101L;
+    // multiplying the low bits of eight bytes by this gathers them, byte k to bit k, in the top byte
+    private static final long GATHER = 0x0102040810204080L;
+    private static final VarHandle EIGHT_CELLS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int size;
+    private final int words;
+    // reds[row * words + w] has bit j set when column 64 * w + j of the row holds a red resident
+    private final long[] reds;
+    private final long[] blues;
+    // least count of the window, own square included, that makes a resident happy, in four bit planes
+    // per word: needed[span - 1][w * 4 + bit], for rows whose window covers span rows
+    private final long[][] needed = new long[3][];
+    // bits of the last word of a row that are on the grid
+    private final long lastWordMask;
+    private double threshold = Double.NaN;
+
+    /**
+     * allocates an empty bitboard for a grid of the given size; call build before using it
+     *
+     * @param size length and width of the grid
+     */
+    Bitboard(int size) {
+        this.size = size;
+        this.words = (size + 63) >>> 6;
+        this.reds = new long[size * words];
+        this.blues = new long[size * words];
+        this.lastWordMask = (size & 63) == 0 ? -1L : (1L << (size & 63)) - 1;
+    }
+
+    /**
+     * @return length and width of the grid this bitboard was allocated for
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * recomputes the masks from the current cells, and the needed counts when the threshold has changed
+     *
+     * @param cells     row-major cell values of a grid of this bitboard's size
+     * @param threshold happiness threshold
+     */
+    void build(byte[] cells, double threshold) {
+        if (Double.compare(threshold, this.threshold) != 0) {
+            this.threshold = threshold;
+            for (int span = 1; span <= 3; span++) {
+                needed[span - 1] = neededPlanes(span, threshold);
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            int base = row * size;
+            for (int w = 0; w < words; w++) {
+                int first = w << 6;
+                int end = Math.min(first + 64, size);
+                long red = 0;
+                long blue = 0;
+                int col = first;
+                for (; col + 8 <= end; col += 8) {
+                    long eight = (long) EIGHT_CELLS.get(cells, base + col);
+                    red |= ((eight & LOW_BITS) * GATHER >>> 56) << (col - first);
+                    blue |= ((eight >>> 1 & LOW_BITS) * GATHER >>> 56) << (col - first);
+                }
+                for (; col < end; col++) {
+                    byte cell = cells[base + col];
+                    red |= (long) (cell & 1) << (col - first);
+                    blue |= (long) (cell >>> 1 & 1) << (col - first);
+                }
+                reds[row * words + w] = red;
+                blues[row * words + w] = blue;
+            }
+        }
+    }
+
+    /**
+     * the planes of needed counts for rows whose window covers span rows
+     */
+    private long[] neededPlanes(int span, double threshold) {
+        long[] planes = new long[words * 4];
+        for (int col = 0; col < size; col++) {
+            int colSpan = Math.min(col + 1, size - 1) - Math.max(col - 1, 0) + 1;
+            int total = span * colSpan - 1;
+            // the same comparison as isHappy, so both agree on every threshold; total + 2 when nothing is enough
+            int same = 0;
+            while (same <= total && !((double) same / (double) total >= threshold)) {
+                same++;
+            }
+            int count = same + 1;
+            for (int bit = 0; bit < 4; bit++) {
+                planes[(col >>> 6) * 4 + bit] |= (long) (count >>> bit & 1) << col;
+            }
+        }
+        return planes;
+    }
+
+    /**
+     * @return the number of happy residents
+     */
+    int happyCount() {
+        long[] happy = new long[words];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            happyRow(row, happy);
+            for (int w = 0; w < words; w++) {
+                count += Long.bitCount(happy[w]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of residents
+     */
+    int residentCount() {
+        int count = 0;
+        for (int i = 0; i < reds.length; i++) {
+            count += Long.bitCount(reds[i] | blues[i]);
+        }
+        return count;
+    }
+
+    /**
+     * writes the index of every unhappy resident and then of every vacant square, each in row-major order
+     *
+     * @param unhappy receives the indices of unhappy residents
+     * @param vacant  receives the indices of vacant squares
+     * @return the number of unhappy residents; the number of vacant squares is size * size minus the
+     * number of residents
+     */
+    int collect(int[] unhappy, int[] vacant) {
+        long[] happy = new long[words];
+        int unhappyCount = 0;
+        int vacantCount = 0;
+        for (int row = 0; row < size; row++) {
+            happyRow(row, happy);
+            for (int w = 0; w < words; w++) {
+                long occupied = reds[row * words + w] | blues[row * words + w];
+                int first = row * size + (w << 6);
+                for (long bits = occupied & ~happy[w]; bits != 0; bits &= bits - 1) {
+                    unhappy[unhappyCount++] = first + Long.numberOfTrailingZeros(bits);
+                }
+                long mask = w == words - 1 ? lastWordMask : -1L;
+                for (long bits = ~occupied & mask; bits != 0; bits &= bits - 1) {
+                    vacant[vacantCount++] = first + Long.numberOfTrailingZeros(bits);
+                }
+            }
+        }
+        return unhappyCount;
+    }
+
+    /**
+     * fills happy with the masks of the happy residents of a row
+     */
+    void happyRow(int row, long[] happy) {
+        int above = row > 0 ? (row - 1) * words : -1;
+        int here = row * words;
+        int below = row < size - 1 ? (row + 1) * words : -1;
+        int span = (above >= 0 ? 1 : 0) + 1 + (below >= 0 ? 1 : 0);
+        long[] planes = needed[span - 1];
+        for (int w = 0; w < words; w++) {
+            long red = reds[here + w];
+            long blue = blues[here + w];
+            long redHappy = red & atLeast(reds, above, here, below, w, planes);
+            long blueHappy = blue & atLeast(blues, above, here, below, w, planes);
+            happy[w] = redHappy | blueHappy;
+        }
+    }
+
+    /**
+     * for word w of a row, the mask of columns whose window holds at least the needed number of the colour
+     * of masks; above and below are the starts of the neighbouring rows, -1 when off the grid
+     */
+    private long atLeast(long[] masks, int above, int here, int below, int w, long[] planes) {
+        // column sums of the three rows for the words left of, at and right of w, as two bit planes each
+        long leftLow = 0;
+        long leftHigh = 0;
+        if (w > 0) {
+            long a = above >= 0 ? masks[above + w - 1] : 0;
+            long b = masks[here + w - 1];
+            long c = below >= 0 ? masks[below + w - 1] : 0;
+            leftLow = a ^ b ^ c;
+            leftHigh = (a & b) | (c & (a ^ b));
+        }
+        long a = above >= 0 ? masks[above + w] : 0;
+        long b = masks[here + w];
+        long c = below >= 0 ? masks[below + w] : 0;
+        long midLow = a ^ b ^ c;
+        long midHigh = (a & b) | (c & (a ^ b));
+        long rightLow = 0;
+        long rightHigh = 0;
+        if (w < words - 1) {
+            a = above >= 0 ? masks[above + w + 1] : 0;
+            b = masks[here + w + 1];
+            c = below >= 0 ? masks[below + w + 1] : 0;
+            rightLow = a ^ b ^ c;
+            rightHigh = (a & b) | (c & (a ^ b));
+        }
+
+        // the column to the left of each square is one bit lower, the column to the right one bit higher
+        long westLow = midLow << 1 | leftLow >>> 63;
+        long westHigh = midHigh << 1 | leftHigh >>> 63;
+        long eastLow = midLow >>> 1 | rightLow << 63;
+        long eastHigh = midHigh >>> 1 | rightHigh << 63;
+
+        // add the three column sums: bit 0, carries into bit 1, then bits 1 to 3
+        long bit0 = westLow ^ midLow ^ eastLow;
+        long carry0 = (westLow & midLow) | (eastLow & (westLow ^ midLow));
+        long sum1 = westHigh ^ midHigh ^ eastHigh;
+        long carry1 = (westHigh & midHigh) | (eastHigh & (westHigh ^ midHigh));
+        long bit1 = sum1 ^ carry0;
+        long carry2 = sum1 & carry0;
+        long bit2 = carry1 ^ carry2;
+        long bit3 = carry1 & carry2;
+
+        // count >= needed exactly when count - needed does not borrow
+        int at = w * 4;
+        long borrow = ~bit0 & planes[at];
+        borrow = (~bit1 & planes[at + 1]) | (~(bit1 ^ planes[at + 1]) & borrow);
+        borrow = (~bit2 & planes[at + 2]) | (~(bit2 ^ planes[at + 2]) & borrow);
+        borrow = (~bit3 & planes[at + 3]) | (~(bit3 ^ planes[at + 3]) & borrow);
+        return ~borrow;
+    }
+}
@@ -0,0 +1,60 @@
+package erehwon;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * in-place Fisher-Yates shuffle of a cell array. the shuffle is bound by its random draws, so each bounded
+ * index is taken from 32 random bits with one multiplication (Lemire 2019) instead of nextInt(bound), and
+ * every 64-bit draw serves two indices
+ */
+final class CellShuffle {
+    private final RandomGenerator rng;
+    // the high half of the last 64 random bits when it has not been used yet
+    private long bits;
+    private boolean halfLeft;
+
+    private CellShuffle(RandomGenerator rng) {
+        this.rng = rng;
+    }
+
+    /**
+     * puts the values in a uniformly random order
+     *
+     * @param values the array to shuffle
+     * @param rng    source of randomness
+     */
+    static void shuffle(byte[] values, RandomGenerator rng) {
+        CellShuffle shuffle = new CellShuffle(rng);
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = shuffle.below(i + 1);
+            byte tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    /**
+     * @return a uniform int in [0, bound)
+     */
+    private int below(int bound) {
+        long product = (nextHalf() & 0xFFFFFFFFL) * bound;
+        if ((product & 0xFFFFFFFFL) < bound) {
+            // reject the few low words that would make some results more likely than others
+            long threshold = (0x100000000L - bound) % bound;
+            while ((product & 0xFFFFFFFFL) < threshold) {
+                product = (nextHalf() & 0xFFFFFFFFL) * bound;
+            }
+        }
+        return (int) (product >>> 32);
+    }
+
+    private int nextHalf() {
+        if (halfLeft) {
+            halfLeft = false;
+            return (int) (bits >>> 32);
+        }
+        bits = rng.nextLong();
+        halfLeft = true;
+        return (int) bits;
+    }
+}
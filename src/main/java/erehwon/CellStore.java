@@ -0,0 +1,44 @@
+package erehwon;
+
+/**
+ * cell values of a grid kept somewhere other than RedBlueGrid's own dense byte array, addressed by row
+ * and column so that grids may have more than Integer.MAX_VALUE squares. the store is divided into square
+ * tiles, and a store may report that a tile holds no residents so that scans can skip it
+ */
+interface CellStore {
+
+    /**
+     * @return length and width of the grid
+     */
+    int size();
+
+    /**
+     * @return VACANT, RED or BLUE; row and col must be on the grid
+     */
+    byte get(int row, int col);
+
+    /**
+     * writes a cell value; row and col must be on the grid
+     */
+    void set(int row, int col, byte cell);
+
+    /**
+     * makes every square vacant
+     */
+    void clear();
+
+    /**
+     * @return number of squares that are not vacant
+     */
+    long residents();
+
+    /**
+     * @return length and width of a tile; the last row and column of tiles may be cut off by the grid edge
+     */
+    int tileSize();
+
+    /**
+     * @return true if the tile is known to hold no residents; false if it may hold some
+     */
+    boolean isTileVacant(int tileRow, int tileCol);
+}
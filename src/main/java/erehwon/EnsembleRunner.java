@@ -0,0 +1,151 @@
+package erehwon;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * runs every run of a sweep headless, on a fixed number of worker threads, and hands each result to a
+ * sink as soon as it completes. each worker keeps one grid per neighbourhood distance and resets it for
+ * every run, so memory does not grow with the number of runs. when the sweep sets a CPU budget, a run
+ * that uses it up stops with reason STOPPED, so strategies can be compared at equal cost. the MetricsEngine
+ * measuring each result is kept with its grid and reused the same way
+ */
+public class EnsembleRunner {
+    private final SweepSpec spec;
+    private final int threads;
+    // grids owned by each worker thread, with the engines measuring them, by neighbourhood distance
+    private final ThreadLocal<Map<Integer, Workspace>> workspaces = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * a worker's grid for one neighbourhood distance and the metrics engine bound to it
+     */
+    private static final class Workspace {
+        final RedBlueGrid grid;
+        final MetricsEngine metrics;
+
+        Workspace(RedBlueGrid grid) {
+            this.grid = grid;
+            this.metrics = new MetricsEngine(grid);
+        }
+    }
+
+    /**
+     * @param spec    the sweep to run
+     * @param threads number of runs executed at the same time; >= 1
+     */
+    public EnsembleRunner(SweepSpec spec, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.spec = spec;
+        this.threads = threads;
+    }
+
+    /**
+     * runs the whole sweep. results are passed to sink from the calling thread, in completion order
+     *
+     * @param sink receives every result exactly once
+     * @throws InterruptedException if the calling thread is interrupted; outstanding runs are cancelled
+     */
+    public void run(Consumer<RunResult> sink) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CompletionService<RunResult> completed = new ExecutorCompletionService<>(executor);
+            for (int run = 0; run < spec.runCount(); run++) {
+                int current = run;
+                completed.submit(() -> runOne(current));
+            }
+            for (int i = 0; i < spec.runCount(); i++) {
+                try {
+                    sink.accept(completed.take().get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("sweep run failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * runs a single run of the sweep on the calling thread's grid, measured by the calling thread's engine
+     *
+     * @param run number of the run; 0 <= run < spec.runCount()
+     * @return the result of the run
+     */
+    RunResult runOne(int run) {
+        int distance = spec.neighborhoodDistance(run);
+        Workspace workspace = workspaces.get().computeIfAbsent(distance, d -> {
+            RedBlueGrid created = new RedBlueGrid(spec.size(), d, 0, 0, 0);
+            created.setIncremental(true);
+            return new Workspace(created);
+        });
+        RedBlueGrid grid = workspace.grid;
+        grid.reset(spec.fractionVacant(run), spec.fractionRed(run), spec.happinessThreshold(run), spec.seed(run));
+        grid.setMoveStrategy(MoveStrategies.parse(spec.strategy(run)));
+        StepListener budget = null;
+        if (spec.cpuBudgetMillis() > 0) {
+            ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+            long deadline = cpu.getCurrentThreadCpuTime() + spec.cpuBudgetMillis() * 1_000_000;
+            budget = (steps, happy) -> cpu.getCurrentThreadCpuTime() < deadline;
+        }
+        SimulationResult result = grid.simulateUntilStable(spec.maxSteps(), RedBlueGrid.DEFAULT_PLATEAU_WINDOW, 0.0,
+            budget);
+        // the engine saw none of this run's steps, so it measures the grid afresh
+        workspace.metrics.invalidate();
+        return new RunResult(run, spec.size(), spec.fractionVacant(run), spec.fractionRed(run),
+            spec.happinessThreshold(run), distance, spec.seed(run), result.steps(), result.reason(),
+            result.fractionHappy(), workspace.metrics.segregation(), spec.strategy(run));
+    }
+
+    /**
+     * runs a sweep from the command line. arguments are those of SweepSpec.parse plus
+     * threads=N (default: available processors), out=PATH (default: standard output) and format=csv|jsonl
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> specArgs = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = null;
+        ResultWriter.Format format = ResultWriter.Format.CSV;
+        for (String arg : args) {
+            if (arg.startsWith("threads=")) {
+                threads = Integer.parseInt(arg.substring("threads=".length()));
+            } else if (arg.startsWith("out=")) {
+                out = arg.substring("out=".length());
+            } else if (arg.startsWith("format=")) {
+                format = ResultWriter.Format.valueOf(arg.substring("format=".length()).toUpperCase(Locale.ROOT));
+            } else {
+                specArgs.add(arg);
+            }
+        }
+        SweepSpec spec = SweepSpec.parse(specArgs.toArray(new String[0]));
+        Writer writer = out == null
+            ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8) {
+                // standard output is flushed, not closed, so it stays usable after the sweep
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            }
+            : new FileWriter(out, StandardCharsets.UTF_8);
+        try (ResultWriter results = new ResultWriter(writer, format)) {
+            new EnsembleRunner(spec, threads).run(results);
+        }
+    }
+}
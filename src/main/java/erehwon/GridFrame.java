@@ -0,0 +1,140 @@
+package erehwon;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * an immutable picture of a grid after some step, for showing while the grid itself goes on changing on
+ * another thread. a frame may also list the squares that changed since the frame before it, so a view
+ * that showed that frame only needs to redraw those
+ */
+public final class GridFrame {
+    private final int size;
+    private final byte[] cells;
+    private final int step;
+    private final double fractionHappy;
+    // squares, numbered row * size + col, that changed since the previous frame; null if not known
+    private final int[] changed;
+
+    private GridFrame(int size, byte[] cells, int step, double fractionHappy, int[] changed) {
+        this.size = size;
+        this.cells = cells;
+        this.step = step;
+        this.fractionHappy = fractionHappy;
+        this.changed = changed;
+    }
+
+    /**
+     * copies the squares of grid; must run on the thread that changes the grid, or while nothing does
+     *
+     * @param grid          the grid to copy; at most 46340 squares wide
+     * @param step          number of steps the grid has run
+     * @param fractionHappy fraction of happy residents of the grid
+     * @return the frame
+     */
+    static GridFrame of(RedBlueGrid grid, int step, double fractionHappy) {
+        return of(grid, step, fractionHappy, null);
+    }
+
+    /**
+     * copies the squares of grid, like of(grid, step, fractionHappy), noting which changed since the
+     * previous frame
+     *
+     * @param changed squares, numbered row * size + col, that changed since the previous frame, repeats
+     *                allowed; null if not known
+     */
+    static GridFrame of(RedBlueGrid grid, int step, double fractionHappy, int[] changed) {
+        int size = grid.size();
+        byte[] cells = grid.cells();
+        if (cells != null) {
+            cells = cells.clone();
+        } else {
+            cells = new byte[size * size];
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    cells[row * size + col] = grid.getCell(row, col);
+                }
+            }
+        }
+        return new GridFrame(size, cells, step, fractionHappy, changed);
+    }
+
+    /**
+     * @param frames consecutive frames of one run, oldest first
+     * @return the newest frame, listing every square that changed since the frame before the oldest
+     */
+    static GridFrame coalesce(List<GridFrame> frames) {
+        GridFrame newest = frames.get(frames.size() - 1);
+        if (frames.size() == 1) {
+            return newest;
+        }
+        int total = 0;
+        for (GridFrame frame : frames) {
+            if (frame.changed == null) {
+                return new GridFrame(newest.size, newest.cells, newest.step, newest.fractionHappy, null);
+            }
+            total += frame.changed.length;
+        }
+        int[] changed = new int[total];
+        int at = 0;
+        for (GridFrame frame : frames) {
+            System.arraycopy(frame.changed, 0, changed, at, frame.changed.length);
+            at += frame.changed.length;
+        }
+        return new GridFrame(newest.size, newest.cells, newest.step, newest.fractionHappy, changed);
+    }
+
+    /**
+     * @return length and width of the grid
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of steps the grid had run when the frame was taken
+     */
+    public int step() {
+        return step;
+    }
+
+    /**
+     * @return fraction of happy residents when the frame was taken
+     */
+    public double fractionHappy() {
+        return fractionHappy;
+    }
+
+    /**
+     * @param row the row of the square; 0 <= row < size
+     * @param col the column of the square; 0 <= col < size
+     * @return VACANT, RED or BLUE for the square when the frame was taken
+     */
+    public byte getCell(int row, int col) {
+        return cells[row * size + col];
+    }
+
+    /**
+     * @param row the row of the square; 0 <= row < size
+     * @param col the column of the square; 0 <= col < size
+     * @return the colour of the square when the frame was taken
+     */
+    public Color getColor(int row, int col) {
+        return RedBlueGrid.toColor(getCell(row, col));
+    }
+
+    /**
+     * @return every square in row-major order; not to be changed
+     */
+    byte[] cells() {
+        return cells;
+    }
+
+    /**
+     * @return the squares, numbered row * size + col, that changed since the previous frame, possibly with
+     * repeats; null if every square may have; not to be changed
+     */
+    int[] changed() {
+        return changed;
+    }
+}
@@ -0,0 +1,94 @@
+package erehwon;
+
+import java.util.Arrays;
+
+/**
+ * measures of how a grid is arranged at one moment, as computed by MetricsEngine.measure.
+ *
+ * shares are taken over the eight surrounding squares (fewer at the edges). clusters are maximal groups of
+ * squares of one kind (red, blue or vacant) joined through shared sides
+ */
+public final class GridMetrics {
+    private final double segregation;
+    private final double vacancyClustering;
+    private final long interfaceLength;
+    // clusterSizes[cell], largest first, for cell VACANT, RED and BLUE
+    private final int[][] clusterSizes;
+
+    GridMetrics(double segregation, double vacancyClustering, long interfaceLength, int[][] clusterSizes) {
+        this.segregation = segregation;
+        this.vacancyClustering = vacancyClustering;
+        this.interfaceLength = interfaceLength;
+        this.clusterSizes = clusterSizes;
+    }
+
+    /**
+     * @return mean, over residents with at least one occupied surrounding square, of the share of those squares
+     * that hold the same colour; 0.5 is well mixed for equal factions, 1 is fully segregated; NaN if no
+     * resident has an occupied surrounding square
+     */
+    public double segregation() {
+        return segregation;
+    }
+
+    /**
+     * @return mean, over vacant squares, of the share of their surrounding squares that are vacant too; NaN
+     * if no vacant square has a surrounding square
+     */
+    public double vacancyClustering() {
+        return vacancyClustering;
+    }
+
+    /**
+     * @return number of pairs of side-by-side squares with a red resident in one and a blue resident in the other
+     */
+    public long interfaceLength() {
+        return interfaceLength;
+    }
+
+    /**
+     * @param cell VACANT, RED or BLUE
+     * @return number of clusters of that kind
+     */
+    public int clusterCount(byte cell) {
+        return clusterSizes[cell].length;
+    }
+
+    /**
+     * @param cell VACANT, RED or BLUE
+     * @return number of squares in the largest cluster of that kind; 0 if there is none
+     */
+    public int largestCluster(byte cell) {
+        return clusterSizes[cell].length == 0 ? 0 : clusterSizes[cell][0];
+    }
+
+    /**
+     * @param cell VACANT, RED or BLUE
+     * @return the size of every cluster of that kind, largest first
+     */
+    public int[] clusterSizes(byte cell) {
+        return clusterSizes[cell].clone();
+    }
+
+    @Override
+    public String toString() {
+        return "segregation " + segregation + ", vacancy clustering " + vacancyClustering + ", interface "
+            + interfaceLength + ", clusters red " + clusterCount(RedBlueGrid.RED) + " (largest "
+            + largestCluster(RedBlueGrid.RED) + "), blue " + clusterCount(RedBlueGrid.BLUE) + " (largest "
+            + largestCluster(RedBlueGrid.BLUE) + "), vacant " + clusterCount(RedBlueGrid.VACANT) + " (largest "
+            + largestCluster(RedBlueGrid.VACANT) + ")";
+    }
+
+    /**
+     * @return sizes sorted largest first
+     */
+    static int[] largestFirst(int[] sizes) {
+        Arrays.sort(sizes);
+        for (int i = 0, j = sizes.length - 1; i < j; i++, j--) {
+            int tmp = sizes[i];
+            sizes[i] = sizes[j];
+            sizes[j] = tmp;
+        }
+        return sizes;
+    }
+}
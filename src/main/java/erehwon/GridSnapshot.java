@@ -0,0 +1,254 @@
+package erehwon;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * the snapshot format of RedBlueGrid.save and RedBlueGrid.load. a 40-byte little-endian header
+ *
+ * magic, version, flags, size, neighbourhood distance, topology (ints), happiness threshold (double),
+ * seed of the random generator (long)
+ *
+ * is followed by the squares in row-major order, four to a byte with the first square in the low bits,
+ * deflated when flags has COMPRESSED set. both directions stream through one fixed-size buffer (two when
+ * compressing) and pack or unpack straight from or into the grid's cells
+ */
+final class GridSnapshot {
+    static final int MAGIC = 0x4552534E;
+    static final int VERSION = 1;
+    static final int COMPRESSED = 1;
+    static final int HEADER_BYTES = 40;
+    private static final int BUFFER_BYTES = 1 << 16;
+    // four dense cells at a time, read and written as one little-endian int
+    private static final VarHandle FOUR_CELLS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    // UNPACKED[b] is the four cells packed in byte b, as such an int; -1 when one of them is not a valid cell
+    private static final int[] UNPACKED = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            int four = 0;
+            boolean valid = true;
+            for (int k = 0; k < 4; k++) {
+                int cell = (b >>> (k << 1)) & 3;
+                four |= cell << (k << 3);
+                valid &= cell <= RedBlueGrid.BLUE;
+            }
+            UNPACKED[b] = valid ? four : -1;
+        }
+    }
+
+    private GridSnapshot() {
+    }
+
+    /**
+     * writes a snapshot of grid
+     *
+     * @param grid     the grid to write
+     * @param seed     seed the grid's generator was just reseeded with
+     * @param out      channel to write to
+     * @param compress true to deflate the packed squares
+     * @throws IOException if writing fails
+     */
+    static void write(RedBlueGrid grid, long seed, WritableByteChannel out, boolean compress) throws IOException {
+        int size = grid.size();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(compress ? COMPRESSED : 0).putInt(size)
+            .putInt(grid.neighborhoodDistance()).putInt(grid.getTopology().ordinal())
+            .putDouble(grid.happinessThreshold()).putLong(seed);
+        buffer.flip();
+        writeFully(out, buffer);
+        buffer.clear();
+
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        ByteBuffer deflated = compress ? ByteBuffer.allocate(BUFFER_BYTES) : null;
+        try {
+            byte[] cells = grid.cells();
+            CellStore store = grid.store();
+            long squares = (long) size * size;
+            long square = 0;
+            if (cells != null) {
+                for (; square + 4 <= squares; square += 4) {
+                    int four = (int) FOUR_CELLS.get(cells, (int) square);
+                    buffer.put((byte) ((four & 3) | (four >>> 6 & 0xC) | (four >>> 12 & 0x30) | (four >>> 18 & 0xC0)));
+                    if (!buffer.hasRemaining()) {
+                        flush(buffer, deflater, deflated, out);
+                    }
+                }
+            }
+            for (; square < squares; square += 4) {
+                int packed = 0;
+                for (int k = 0; k < 4 && square + k < squares; k++) {
+                    long at = square + k;
+                    byte cell = cells != null ? cells[(int) at] : store.get((int) (at / size), (int) (at % size));
+                    packed |= cell << (k << 1);
+                }
+                buffer.put((byte) packed);
+                if (!buffer.hasRemaining()) {
+                    flush(buffer, deflater, deflated, out);
+                }
+            }
+            flush(buffer, deflater, deflated, out);
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflated.clear();
+                    deflater.deflate(deflated);
+                    deflated.flip();
+                    writeFully(out, deflated);
+                }
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * writes the packed bytes in buffer, through the deflater if there is one, and empties buffer
+     */
+    private static void flush(ByteBuffer buffer, Deflater deflater, ByteBuffer deflated, WritableByteChannel out)
+        throws IOException {
+        buffer.flip();
+        if (deflater == null) {
+            writeFully(out, buffer);
+        } else {
+            deflater.setInput(buffer);
+            while (!deflater.needsInput()) {
+                deflated.clear();
+                deflater.deflate(deflated);
+                deflated.flip();
+                writeFully(out, deflated);
+            }
+        }
+        buffer.clear();
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * reads a snapshot into a new grid
+     *
+     * @param in channel to read from
+     * @return the grid of the snapshot
+     * @throws IOException if reading fails or the data is not a snapshot
+     */
+    static RedBlueGrid read(ReadableByteChannel in) throws IOException {
+        ByteBuffer raw = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        raw.limit(HEADER_BYTES);
+        readFully(in, raw);
+        raw.flip();
+        if (raw.getInt() != MAGIC || raw.getInt() != VERSION) {
+            throw new IOException("not a grid snapshot of version " + VERSION);
+        }
+        int flags = raw.getInt();
+        int size = raw.getInt();
+        int distance = raw.getInt();
+        int topology = raw.getInt();
+        double threshold = raw.getDouble();
+        long seed = raw.getLong();
+        if (size < 1 || distance < 0 || topology < 0 || topology >= Topology.values().length) {
+            throw new IOException("corrupt grid snapshot header");
+        }
+        RedBlueGrid grid = RedBlueGrid.vacant(size, distance, threshold, seed);
+        grid.setTopology(Topology.values()[topology]);
+
+        byte[] cells = grid.cells();
+        CellStore store = grid.store();
+        long squares = (long) size * size;
+        long packedBytes = (squares + 3) >>> 2;
+        Inflater inflater = (flags & COMPRESSED) != 0 ? new Inflater() : null;
+        ByteBuffer packed = inflater != null ? ByteBuffer.allocate(BUFFER_BYTES) : raw;
+        try {
+            long square = 0;
+            long remaining = packedBytes;
+            while (remaining > 0) {
+                packed.clear();
+                if (inflater == null) {
+                    // never read past the snapshot, so the channel can carry more after it
+                    packed.limit((int) Math.min(BUFFER_BYTES, remaining));
+                    readFully(in, packed);
+                } else {
+                    inflate(in, raw, inflater, packed);
+                }
+                packed.flip();
+                remaining -= packed.remaining();
+                if (cells != null) {
+                    while (packed.hasRemaining() && square + 4 <= squares) {
+                        int four = UNPACKED[packed.get() & 0xFF];
+                        if (four < 0) {
+                            throw new IOException("corrupt grid snapshot cell");
+                        }
+                        FOUR_CELLS.set(cells, (int) square, four);
+                        square += 4;
+                    }
+                }
+                while (packed.hasRemaining()) {
+                    int bits = packed.get();
+                    for (int k = 0; k < 4 && square < squares; k++, square++) {
+                        byte cell = (byte) ((bits >>> (k << 1)) & 3);
+                        if (cell > RedBlueGrid.BLUE) {
+                            throw new IOException("corrupt grid snapshot cell");
+                        }
+                        if (cells != null) {
+                            cells[(int) square] = cell;
+                        } else if (cell != RedBlueGrid.VACANT) {
+                            store.set((int) (square / size), (int) (square % size), cell);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * inflates at least one byte into packed, reading more compressed bytes into raw when the inflater needs them
+     */
+    private static void inflate(ReadableByteChannel in, ByteBuffer raw, Inflater inflater, ByteBuffer packed)
+        throws IOException {
+        try {
+            while (packed.position() == 0) {
+                if (inflater.finished()) {
+                    throw new EOFException("grid snapshot ends early");
+                }
+                if (inflater.needsInput()) {
+                    raw.clear();
+                    if (in.read(raw) < 0) {
+                        throw new EOFException("grid snapshot ends early");
+                    }
+                    raw.flip();
+                    inflater.setInput(raw);
+                }
+                inflater.inflate(packed);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt grid snapshot data", e);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("grid snapshot ends early");
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package erehwon;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * draws a grid from an image with one pixel per square, scaled onto the screen, so the cost of showing a
+ * grid does not grow with the number of components. squares are written straight into the image's int
+ * raster: a whole grid in one pass over its cells, or only the squares a frame says have changed. changed
+ * squares are repainted a band of rows at a time, each band as the box around its changed squares, and
+ * painted at once on the event dispatch thread, since Swing would merge the boxes of separate repaint
+ * calls into one around them all. a frame that changes much of the grid repaints all of it.
+ *
+ * the view starts fitted to its size. the mouse wheel zooms around the pointer, dragging pans, and a click
+ * that did not drag is reported as the row and column under the pointer
+ */
+@SuppressWarnings("serial")
+public class GridView extends JComponent {
+    private static final int[] RGB = {
+        RedBlueGrid.toColor(RedBlueGrid.VACANT).getRGB(),
+        RedBlueGrid.toColor(RedBlueGrid.RED).getRGB(),
+        RedBlueGrid.toColor(RedBlueGrid.BLUE).getRGB()
+    };
+    private static final double ZOOM_STEP = 1.25;
+    // most screen pixels per square when zoomed in
+    private static final double MAX_SCALE = 64;
+    // rows of squares in a band that show repaints as one box
+    private static final int BAND_ROWS = 8;
+    // show repaints the whole view once the boxes of its bands cover this fraction of the grid
+    private static final double FULL_REPAINT_FRACTION = 0.25;
+
+    /**
+     * told about clicks on squares
+     */
+    public interface SquareClickListener {
+        /**
+         * @param row row of the square clicked
+         * @param col column of the square clicked
+         */
+        void clicked(int row, int col);
+    }
+
+    private final int size;
+    private final BufferedImage image;
+    private final int[] pixels;
+    // screen pixels per square, and where the grid's top left corner is on the screen
+    private double scale;
+    private double originX;
+    private double originY;
+    // true until the user zooms or pans; the grid is then kept fitted to the view
+    private boolean fitted = true;
+    private SquareClickListener clickListener;
+
+    /**
+     * @param size length and width of the grids to show; at most 46340
+     */
+    public GridView(int size) {
+        this.size = size;
+        this.image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        setPreferredSize(new Dimension(480, 480));
+        MouseAdapter mouse = new MouseAdapter() {
+            private Point pressed;
+            private boolean dragged;
+
+            @Override
+            public void mousePressed(MouseEvent e) {
+                pressed = e.getPoint();
+                dragged = false;
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (pressed == null) {
+                    return;
+                }
+                fit();
+                fitted = false;
+                dragged = true;
+                originX += e.getX() - pressed.x;
+                originY += e.getY() - pressed.y;
+                pressed = e.getPoint();
+                repaint();
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                if (!dragged && clickListener != null) {
+                    fit();
+                    int col = (int) Math.floor((e.getX() - originX) / scale);
+                    int row = (int) Math.floor((e.getY() - originY) / scale);
+                    if (row >= 0 && row < size && col >= 0 && col < size) {
+                        clickListener.clicked(row, col);
+                    }
+                }
+                pressed = null;
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                zoom(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getX(), e.getY());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * @param listener told about every click on a square; null for none
+     */
+    public void setSquareClickListener(SquareClickListener listener) {
+        this.clickListener = listener;
+    }
+
+    /**
+     * undoes zooming and panning, fitting the grid to the view again
+     */
+    public void fitToView() {
+        fitted = true;
+        repaint();
+    }
+
+    /**
+     * @return the colour the view holds for a square, as an RGB int
+     */
+    int rgb(int row, int col) {
+        return pixels[row * size + col] | 0xFF000000;
+    }
+
+    /**
+     * shows a frame: every square, or only the squares it lists as changed
+     *
+     * @param frame a frame of a grid of this view's size
+     */
+    public void show(GridFrame frame) {
+        byte[] cells = frame.cells();
+        int[] changed = frame.changed();
+        if (changed == null) {
+            for (int i = 0; i < cells.length; i++) {
+                pixels[i] = RGB[cells[i]];
+            }
+            repaint();
+            return;
+        }
+        if (changed.length == 0) {
+            return;
+        }
+        for (int square : changed) {
+            pixels[square] = RGB[cells[square]];
+        }
+        List<Rectangle> regions = dirtyRegions(changed);
+        if (regions == null) {
+            repaint();
+            return;
+        }
+        for (Rectangle region : regions) {
+            repaintSquares(region.y, region.x, region.y + region.height - 1, region.x + region.width - 1);
+        }
+    }
+
+    /**
+     * groups changed squares by band of BAND_ROWS rows
+     *
+     * @param changed squares, numbered row * size + col, repeats allowed
+     * @return for every band with a changed square, the box around its changed squares, with x the column
+     * and y the row of its top left square; null if the boxes cover so much of the grid that repainting
+     * all of it is cheaper
+     */
+    List<Rectangle> dirtyRegions(int[] changed) {
+        int bands = (size + BAND_ROWS - 1) / BAND_ROWS;
+        int[] top = new int[bands];
+        int[] left = new int[bands];
+        int[] bottom = new int[bands];
+        int[] right = new int[bands];
+        Arrays.fill(top, size);
+        Arrays.fill(left, size);
+        Arrays.fill(bottom, -1);
+        Arrays.fill(right, -1);
+        for (int square : changed) {
+            int row = square / size;
+            int col = square % size;
+            int band = row / BAND_ROWS;
+            top[band] = Math.min(top[band], row);
+            bottom[band] = Math.max(bottom[band], row);
+            left[band] = Math.min(left[band], col);
+            right[band] = Math.max(right[band], col);
+        }
+        List<Rectangle> regions = new ArrayList<>();
+        long area = 0;
+        for (int band = 0; band < bands; band++) {
+            if (bottom[band] >= 0) {
+                Rectangle region = new Rectangle(left[band], top[band], right[band] - left[band] + 1,
+                    bottom[band] - top[band] + 1);
+                area += (long) region.width * region.height;
+                regions.add(region);
+            }
+        }
+        return area >= FULL_REPAINT_FRACTION * size * size ? null : regions;
+    }
+
+    /**
+     * shows every square of grid; only call while nothing else changes the grid
+     *
+     * @param grid a grid of this view's size
+     */
+    public void showAll(RedBlueGrid grid) {
+        byte[] cells = grid.cells();
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int i = row * size + col;
+                pixels[i] = RGB[cells != null ? cells[i] : grid.getCell(row, col)];
+            }
+        }
+        repaint();
+    }
+
+    /**
+     * shows a new value for one square
+     *
+     * @param row  row of the square
+     * @param col  column of the square
+     * @param cell VACANT, RED or BLUE
+     */
+    public void showSquare(int row, int col, byte cell) {
+        pixels[row * size + col] = RGB[cell];
+        repaintSquares(row, col, row, col);
+    }
+
+    /**
+     * repaints the part of the screen covering the squares from (top, left) to (bottom, right): at once on
+     * the event dispatch thread, so separate boxes stay separate, and later otherwise
+     */
+    private void repaintSquares(int top, int left, int bottom, int right) {
+        fit();
+        int x = (int) Math.floor(originX + left * scale);
+        int y = (int) Math.floor(originY + top * scale);
+        int width = (int) Math.ceil(originX + (right + 1) * scale) - x;
+        int height = (int) Math.ceil(originY + (bottom + 1) * scale) - y;
+        if (SwingUtilities.isEventDispatchThread()) {
+            paintImmediately(x, y, width, height);
+        } else {
+            repaint(x, y, width, height);
+        }
+    }
+
+    /**
+     * scales by factor, keeping the point under (x, y) where it is
+     */
+    private void zoom(double factor, int x, int y) {
+        fit();
+        double fitScale = fitScale();
+        double newScale = Math.max(Math.min(scale * factor, MAX_SCALE), fitScale / 4);
+        originX = x - (x - originX) * newScale / scale;
+        originY = y - (y - originY) * newScale / scale;
+        scale = newScale;
+        fitted = false;
+        repaint();
+    }
+
+    private double fitScale() {
+        return Math.max(Math.min(getWidth(), getHeight()), 1) / (double) size;
+    }
+
+    /**
+     * while the view has not been zoomed or panned, centres the grid and scales it to fill the view
+     */
+    private void fit() {
+        if (!fitted) {
+            return;
+        }
+        scale = fitScale();
+        originX = (getWidth() - size * scale) / 2;
+        originY = (getHeight() - size * scale) / 2;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        fit();
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setColor(Color.DARK_GRAY);
+            g2.fillRect(0, 0, getWidth(), getHeight());
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g2.drawImage(image, new AffineTransform(scale, 0, 0, scale, originX, originY), null);
+        } finally {
+            g2.dispose();
+        }
+    }
+}
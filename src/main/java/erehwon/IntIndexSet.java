@@ -0,0 +1,94 @@
+package erehwon;
+
+import java.util.Arrays;
+
+/**
+ * a set of square indices in [0, capacity) backed by int arrays. add, remove and contains are O(1);
+ * removal swaps the last element into the freed slot, so iteration order is not insertion order
+ */
+class IntIndexSet {
+    private final int[] items;
+    // positions[idx] is the slot of idx in items, or -1 if idx is not in the set
+    private final int[] positions;
+    private int count;
+
+    /**
+     * creates an empty set
+     *
+     * @param capacity one more than the largest index the set can hold
+     */
+    IntIndexSet(int capacity) {
+        items = new int[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+     * @return number of indices in the set
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param slot position in [0, size())
+     * @return the index stored at that position
+     */
+    int get(int slot) {
+        return items[slot];
+    }
+
+    boolean contains(int idx) {
+        return positions[idx] >= 0;
+    }
+
+    /**
+     * adds idx if it is not already present
+     *
+     * @return true if the set changed
+     */
+    boolean add(int idx) {
+        if (positions[idx] >= 0) {
+            return false;
+        }
+        items[count] = idx;
+        positions[idx] = count;
+        count++;
+        return true;
+    }
+
+    /**
+     * removes idx if it is present, moving the last element into its slot
+     *
+     * @return true if the set changed
+     */
+    boolean remove(int idx) {
+        int slot = positions[idx];
+        if (slot < 0) {
+            return false;
+        }
+        count--;
+        int last = items[count];
+        items[slot] = last;
+        positions[last] = slot;
+        positions[idx] = -1;
+        return true;
+    }
+
+    void clear() {
+        for (int i = 0; i < count; i++) {
+            positions[items[i]] = -1;
+        }
+        count = 0;
+    }
+
+    /**
+     * copies the indices, in slot order, to the front of dest
+     *
+     * @return number of indices copied
+     */
+    int copyTo(int[] dest) {
+        System.arraycopy(items, 0, dest, 0, count);
+        return count;
+    }
+}
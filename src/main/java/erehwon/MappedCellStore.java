@@ -0,0 +1,249 @@
+package erehwon;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * a CellStore kept in a memory-mapped file, two bits per square in row-major order after a fixed header.
+ * the operating system pages the squares in and out, so the grid may be larger than the heap.
+ *
+ * the file holds two images of the cells. one is the checkpoint, which is never written until the next
+ * checkpoint; the other is live, and every write goes straight to it. a checkpoint forces the live image,
+ * records it in the header as the new checkpoint and forces the header, then copies it over the other
+ * image, which becomes live. so the file always holds a complete checkpoint, even after a crash in the
+ * middle of one, and open starts again from it. that costs more than a checkpoint that only forces the
+ * cells: every checkpoint also copies a whole image, reading and writing a quarter byte per square, and
+ * the file holds the cells twice. forcing a single image would leave nothing to restart from after a crash
+ * between checkpoints, when some of the squares written since the last one may have reached the disk and
+ * others not. the header holds what RedBlueGrid needs to carry on:
+ *
+ * magic, version, size, neighbourhood distance, topology (ints), happiness threshold (double),
+ * seed of the random generator, number of residents (longs), image holding the checkpoint (int)
+ */
+class MappedCellStore implements CellStore {
+    static final int MAGIC = 0x45524D47;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    // the cells are mapped in regions of at most 1 GiB, the largest power of two a buffer can hold
+    private static final int REGION_BITS = 30;
+    private static final int REGION_MASK = (1 << REGION_BITS) - 1;
+    // the low bit of every two-bit square
+    private static final long LOW_BITS = 0x5555555555555555L;
+    private final int size;
+    private final MappedByteBuffer header;
+    // images[i] holds the regions of image i
+    private final MappedByteBuffer[][] images;
+    // the image written by set, and the regions of it
+    private int live;
+    private MappedByteBuffer[] regions;
+    private long residents;
+
+    private MappedCellStore(FileChannel channel, int size) throws IOException {
+        this.size = size;
+        long bytes = imageBytes(size);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        images = new MappedByteBuffer[2][(int) ((bytes + REGION_MASK) >>> REGION_BITS)];
+        for (int image = 0; image < 2; image++) {
+            for (int r = 0; r < images[image].length; r++) {
+                long offset = (long) r << REGION_BITS;
+                images[image][r] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + image * bytes + offset,
+                    Math.min(bytes - offset, 1L << REGION_BITS));
+            }
+        }
+        regions = images[live];
+    }
+
+    /**
+     * @return bytes of one image of the cells of a grid of the given size
+     */
+    private static long imageBytes(int size) {
+        return ((long) size * size + 3) >>> 2;
+    }
+
+    /**
+     * creates (or truncates) the file and maps an all-vacant grid in it; the header is written by checkpoint
+     *
+     * @param file the file to create
+     * @param size length and width of the grid; >= 1
+     * @return the new store
+     * @throws IOException if the file cannot be created or mapped
+     */
+    static MappedCellStore create(Path file, int size) throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedCellStore store = new MappedCellStore(channel, size);
+            store.clear();
+            return store;
+        }
+    }
+
+    /**
+     * maps a file written by an earlier store, with the cells and header of its last checkpoint; whatever
+     * was written after that checkpoint is dropped
+     *
+     * @param file the file to open
+     * @return the store
+     * @throws IOException if the file cannot be mapped or is not a grid file
+     */
+    static MappedCellStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is not a grid file");
+            }
+            MappedByteBuffer probe = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            probe.order(ByteOrder.LITTLE_ENDIAN);
+            if (probe.getInt(0) != MAGIC || probe.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a grid file of version " + VERSION);
+            }
+            int size = probe.getInt(8);
+            int checkpoint = probe.getInt(48);
+            if (size < 1 || (checkpoint != 0 && checkpoint != 1)) {
+                throw new IOException(file + " has a corrupt header");
+            }
+            if (channel.size() < HEADER_BYTES + 2 * imageBytes(size)) {
+                throw new IOException(file + " is truncated");
+            }
+            MappedCellStore store = new MappedCellStore(channel, size);
+            store.copyImage(checkpoint, 1 - checkpoint);
+            store.setLive(1 - checkpoint);
+            store.residents = store.countResidents();
+            return store;
+        }
+    }
+
+    /**
+     * makes the live cells the file's new checkpoint, with the grid parameters and generator seed given,
+     * and carries on writing to the other image
+     */
+    void checkpoint(int distance, Topology topology, double threshold, long seed) {
+        for (MappedByteBuffer region : regions) {
+            region.force();
+        }
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(8, size);
+        header.putInt(12, distance);
+        header.putInt(16, topology.ordinal());
+        header.putDouble(24, threshold);
+        header.putLong(32, seed);
+        header.putLong(40, residents);
+        header.putInt(48, live);
+        header.force();
+        copyImage(live, 1 - live);
+        setLive(1 - live);
+    }
+
+    private void setLive(int image) {
+        live = image;
+        regions = images[image];
+    }
+
+    /**
+     * copies every cell of image from over image to
+     */
+    private void copyImage(int from, int to) {
+        for (int r = 0; r < images[from].length; r++) {
+            MappedByteBuffer source = images[from][r];
+            images[to][r].put(0, source, 0, source.capacity());
+        }
+    }
+
+    /**
+     * @return number of residents in the live image, counted from its squares
+     */
+    private long countResidents() {
+        long count = 0;
+        for (MappedByteBuffer region : regions) {
+            int i = 0;
+            for (; i + Long.BYTES <= region.capacity(); i += Long.BYTES) {
+                long eight = region.getLong(i);
+                count += Long.bitCount((eight | eight >>> 1) & LOW_BITS);
+            }
+            for (; i < region.capacity(); i++) {
+                int packed = region.get(i);
+                count += Integer.bitCount((packed | packed >>> 1) & 0x55);
+            }
+        }
+        return count;
+    }
+
+    int distance() {
+        return header.getInt(12);
+    }
+
+    Topology topology() {
+        return Topology.values()[header.getInt(16)];
+    }
+
+    double threshold() {
+        return header.getDouble(24);
+    }
+
+    long seed() {
+        return header.getLong(32);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte get(int row, int col) {
+        long square = (long) row * size + col;
+        long at = square >>> 2;
+        byte packed = regions[(int) (at >>> REGION_BITS)].get((int) (at & REGION_MASK));
+        return (byte) ((packed >>> (((int) square & 3) << 1)) & 3);
+    }
+
+    @Override
+    public void set(int row, int col, byte cell) {
+        long square = (long) row * size + col;
+        long at = square >>> 2;
+        MappedByteBuffer region = regions[(int) (at >>> REGION_BITS)];
+        int offset = (int) (at & REGION_MASK);
+        int shift = ((int) square & 3) << 1;
+        int packed = region.get(offset);
+        int old = (packed >>> shift) & 3;
+        region.put(offset, (byte) ((packed & ~(3 << shift)) | (cell << shift)));
+        residents += (cell != RedBlueGrid.VACANT ? 1 : 0) - (old != RedBlueGrid.VACANT ? 1 : 0);
+    }
+
+    @Override
+    public void clear() {
+        for (MappedByteBuffer region : regions) {
+            int i = 0;
+            for (; i + Long.BYTES <= region.capacity(); i += Long.BYTES) {
+                region.putLong(i, 0L);
+            }
+            for (; i < region.capacity(); i++) {
+                region.put(i, (byte) 0);
+            }
+        }
+        residents = 0;
+    }
+
+    @Override
+    public long residents() {
+        return residents;
+    }
+
+    // one tile covering the grid, so scans run row by row in file order
+    @Override
+    public int tileSize() {
+        return size;
+    }
+
+    @Override
+    public boolean isTileVacant(int tileRow, int tileCol) {
+        return false;
+    }
+}
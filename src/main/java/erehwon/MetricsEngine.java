@@ -0,0 +1,420 @@
+package erehwon;
+
+import java.util.Arrays;
+
+/**
+ * computes GridMetrics for a grid in the dense layout in one row-major pass: every row is read with the
+ * rows above and below it for the shares of the surrounding squares, the red-blue pairs it forms with the
+ * squares to the right and below are counted, and its clusters are labelled against the row above with a
+ * union-find over the labels (Hoshen-Kopelman), so only two rows of labels are kept.
+ *
+ * the local measures (segregation, vacancy clustering and interface length) can also be kept up to date
+ * step by step: once attached, the engine records the squares every step's moves touch and, at the end of
+ * the step, takes the measures of only the squares around them again. every share is kept as a whole
+ * multiple of 1/840, which every possible number of surrounding squares divides, so the running sums stay
+ * exact and always equal a fresh measure. cluster labelling has no cheap update for squares that empty, so
+ * clusters are only found by measure. changes made outside the step methods (setColor, shiftColor, reset)
+ * are not seen; call measure after them
+ */
+public class MetricsEngine implements MoveRecorder {
+    private static final int SHARE_SCALE = 840;
+
+    private final RedBlueGrid grid;
+    private final int size;
+    // for each square, as of the last time its measures were taken: its cell, its share scaled by
+    // SHARE_SCALE (-1 if it has none) and the number of red-blue pairs it forms with the squares to its
+    // right and below
+    private final byte[] seen;
+    private final int[] share;
+    private final byte[] pairs;
+    private long segregationSum;
+    private int segregationCount;
+    private long vacancySum;
+    private int vacancyCount;
+    private long interfaceLength;
+    private boolean measured;
+
+    // red and blue residents of each column in the rows around the current one
+    private final int[] columnReds;
+    private final int[] columnBlues;
+    // cluster labels of the row above and the current row, and the union-find over all labels
+    private int[] aboveLabels;
+    private int[] labels;
+    private int[] parent = new int[64];
+    private int[] clusterSize = new int[64];
+    private byte[] labelCell = new byte[64];
+    private int labelCount;
+
+    // while attached: the recorder that was there before, the squares touched since the last step ended
+    // (a count of -1 once there are so many that measuring every square is cheaper), and stamps of squares
+    // already measured again
+    private boolean attached;
+    private MoveRecorder previous;
+    private int[] touched = new int[64];
+    private int touchedCount;
+    private int[] stamps;
+    private int stamp;
+
+    /**
+     * @param grid a grid in the dense layout
+     */
+    public MetricsEngine(RedBlueGrid grid) {
+        if (grid.cells() == null) {
+            throw new IllegalStateException("metrics need the dense layout");
+        }
+        this.grid = grid;
+        this.size = grid.size();
+        int squares = size * size;
+        seen = new byte[squares];
+        share = new int[squares];
+        pairs = new byte[squares];
+        columnReds = new int[size];
+        columnBlues = new int[size];
+        aboveLabels = new int[size];
+        labels = new int[size];
+    }
+
+    /**
+     * measures the grid as it is now, clusters included, in one pass; the local measures are brought up to
+     * date as well
+     *
+     * @return the measures
+     */
+    public GridMetrics measure() {
+        scan(true);
+        int[] counts = new int[3];
+        for (int label = 0; label < labelCount; label++) {
+            if (parent[label] == label) {
+                counts[labelCell[label]]++;
+            }
+        }
+        int[][] sizes = {new int[counts[0]], new int[counts[1]], new int[counts[2]]};
+        Arrays.fill(counts, 0);
+        for (int label = 0; label < labelCount; label++) {
+            if (parent[label] == label) {
+                byte cell = labelCell[label];
+                sizes[cell][counts[cell]++] = clusterSize[label];
+            }
+        }
+        for (int[] kind : sizes) {
+            GridMetrics.largestFirst(kind);
+        }
+        return new GridMetrics(segregation(), vacancyClustering(), interfaceLength, sizes);
+    }
+
+    /**
+     * @return the segregation of GridMetrics, as of the last measure or, while attached, the last step
+     */
+    public double segregation() {
+        ensureMeasured();
+        return segregationCount == 0 ? Double.NaN : (double) segregationSum / ((double) SHARE_SCALE * segregationCount);
+    }
+
+    /**
+     * @return the vacancy clustering of GridMetrics, as of the last measure or, while attached, the last step
+     */
+    public double vacancyClustering() {
+        ensureMeasured();
+        return vacancyCount == 0 ? Double.NaN : (double) vacancySum / ((double) SHARE_SCALE * vacancyCount);
+    }
+
+    /**
+     * @return the interface length of GridMetrics, as of the last measure or, while attached, the last step
+     */
+    public long interfaceLength() {
+        ensureMeasured();
+        return interfaceLength;
+    }
+
+    /**
+     * starts keeping the local measures up to date after every step, as the grid's move recorder. a
+     * recorder the grid already had keeps getting every move
+     */
+    public void attach() {
+        if (attached) {
+            return;
+        }
+        if (stamps == null) {
+            stamps = new int[size * size];
+        }
+        previous = grid.moveRecorder();
+        grid.setMoveRecorder(this);
+        attached = true;
+        touchedCount = 0;
+        scan(false);
+    }
+
+    /**
+     * stops following the steps and gives the grid back the recorder it had before attach
+     */
+    public void detach() {
+        if (!attached) {
+            return;
+        }
+        grid.setMoveRecorder(previous);
+        previous = null;
+        attached = false;
+    }
+
+    @Override
+    public void move(long from, long to, byte color) {
+        touch((int) from);
+        touch((int) to);
+        if (previous != null) {
+            previous.move(from, to, color);
+        }
+    }
+
+    @Override
+    public void endStep() {
+        if (touchedCount < 0) {
+            scan(false);
+        } else {
+            refreshTouched();
+        }
+        touchedCount = 0;
+        if (previous != null) {
+            previous.endStep();
+        }
+    }
+
+    private void touch(int square) {
+        if (touchedCount < 0) {
+            return;
+        }
+        if (touchedCount == touched.length) {
+            // each touched square costs up to nine squares measured again; past that a whole pass is cheaper
+            if (touchedCount * 9L >= seen.length) {
+                touchedCount = -1;
+                return;
+            }
+            touched = Arrays.copyOf(touched, touchedCount * 2);
+        }
+        touched[touchedCount++] = square;
+    }
+
+    /**
+     * forgets the measures taken so far, so the next one reads the grid again; for a grid changed outside
+     * the step methods while the engine is not attached, such as one that was reset and run
+     */
+    void invalidate() {
+        measured = false;
+    }
+
+    private void ensureMeasured() {
+        if (!measured) {
+            scan(false);
+        }
+    }
+
+    /**
+     * takes the measures of every square around a touched one again, once each
+     */
+    private void refreshTouched() {
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        byte[] cells = grid.cells();
+        for (int t = 0; t < touchedCount; t++) {
+            int row = touched[t] / size;
+            int col = touched[t] % size;
+            for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, size - 1); i++) {
+                for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, size - 1); j++) {
+                    int square = i * size + j;
+                    if (stamps[square] != stamp) {
+                        stamps[square] = stamp;
+                        remove(square);
+                        measureSquare(cells, i, j);
+                        add(square);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * takes the share and pairs of one square from the cells around it
+     */
+    private void measureSquare(byte[] cells, int row, int col) {
+        int reds = 0;
+        int blues = 0;
+        int window = 0;
+        for (int i = Math.max(row - 1, 0); i <= Math.min(row + 1, size - 1); i++) {
+            for (int j = Math.max(col - 1, 0); j <= Math.min(col + 1, size - 1); j++) {
+                byte other = cells[i * size + j];
+                reds += other == RedBlueGrid.RED ? 1 : 0;
+                blues += other == RedBlueGrid.BLUE ? 1 : 0;
+                window++;
+            }
+        }
+        int square = row * size + col;
+        byte cell = cells[square];
+        seen[square] = cell;
+        share[square] = shareOf(cell, reds, blues, window);
+        pairs[square] = pairsOf(cells, row, col);
+    }
+
+    /**
+     * @return the share of a square's surrounding squares that are like it, scaled by SHARE_SCALE, from the
+     * counts of its window (the square itself included); -1 if the share is not defined
+     */
+    private static int shareOf(byte cell, int reds, int blues, int window) {
+        if (cell == RedBlueGrid.VACANT) {
+            int neighbours = window - 1;
+            int vacant = window - reds - blues - 1;
+            return neighbours > 0 ? SHARE_SCALE * vacant / neighbours : -1;
+        }
+        int occupied = reds + blues - 1;
+        int same = (cell == RedBlueGrid.RED ? reds : blues) - 1;
+        return occupied > 0 ? SHARE_SCALE * same / occupied : -1;
+    }
+
+    /**
+     * @return the number of red-blue pairs the square forms with the squares to its right and below
+     */
+    private byte pairsOf(byte[] cells, int row, int col) {
+        int square = row * size + col;
+        byte cell = cells[square];
+        if (cell == RedBlueGrid.VACANT) {
+            return 0;
+        }
+        byte other = (byte) (RedBlueGrid.RED + RedBlueGrid.BLUE - cell);
+        int count = 0;
+        if (col + 1 < size && cells[square + 1] == other) {
+            count++;
+        }
+        if (row + 1 < size && cells[square + size] == other) {
+            count++;
+        }
+        return (byte) count;
+    }
+
+    private void add(int square) {
+        if (share[square] >= 0) {
+            if (seen[square] == RedBlueGrid.VACANT) {
+                vacancySum += share[square];
+                vacancyCount++;
+            } else {
+                segregationSum += share[square];
+                segregationCount++;
+            }
+        }
+        interfaceLength += pairs[square];
+    }
+
+    private void remove(int square) {
+        if (share[square] >= 0) {
+            if (seen[square] == RedBlueGrid.VACANT) {
+                vacancySum -= share[square];
+                vacancyCount--;
+            } else {
+                segregationSum -= share[square];
+                segregationCount--;
+            }
+        }
+        interfaceLength -= pairs[square];
+    }
+
+    /**
+     * takes every square's measures in one row-major pass, labelling clusters too when asked
+     */
+    private void scan(boolean clusters) {
+        byte[] cells = grid.cells();
+        segregationSum = 0;
+        segregationCount = 0;
+        vacancySum = 0;
+        vacancyCount = 0;
+        interfaceLength = 0;
+        labelCount = 0;
+        for (int row = 0; row < size; row++) {
+            int top = Math.max(row - 1, 0);
+            int bottom = Math.min(row + 1, size - 1);
+            int rows = bottom - top + 1;
+            for (int col = 0; col < size; col++) {
+                int reds = 0;
+                int blues = 0;
+                for (int i = top; i <= bottom; i++) {
+                    byte cell = cells[i * size + col];
+                    reds += cell == RedBlueGrid.RED ? 1 : 0;
+                    blues += cell == RedBlueGrid.BLUE ? 1 : 0;
+                }
+                columnReds[col] = reds;
+                columnBlues[col] = blues;
+            }
+            for (int col = 0; col < size; col++) {
+                int left = Math.max(col - 1, 0);
+                int right = Math.min(col + 1, size - 1);
+                int reds = 0;
+                int blues = 0;
+                for (int j = left; j <= right; j++) {
+                    reds += columnReds[j];
+                    blues += columnBlues[j];
+                }
+                int square = row * size + col;
+                byte cell = cells[square];
+                seen[square] = cell;
+                share[square] = shareOf(cell, reds, blues, rows * (right - left + 1));
+                pairs[square] = pairsOf(cells, row, col);
+                add(square);
+                if (clusters) {
+                    label(cells, row, col);
+                }
+            }
+            int[] done = aboveLabels;
+            aboveLabels = labels;
+            labels = done;
+        }
+        measured = true;
+    }
+
+    /**
+     * gives a square the label of the cluster it joins through its left or upper side, merging the two when
+     * it joins both, or a new label
+     */
+    private void label(byte[] cells, int row, int col) {
+        int square = row * size + col;
+        byte cell = cells[square];
+        int up = row > 0 && cells[square - size] == cell ? find(aboveLabels[col]) : -1;
+        int left = col > 0 && cells[square - 1] == cell ? find(labels[col - 1]) : -1;
+        int label;
+        if (up < 0 && left < 0) {
+            label = newLabel(cell);
+        } else if (up < 0 || up == left) {
+            label = left;
+        } else if (left < 0) {
+            label = up;
+        } else {
+            // union by size
+            label = clusterSize[up] >= clusterSize[left] ? up : left;
+            int other = label == up ? left : up;
+            parent[other] = label;
+            clusterSize[label] += clusterSize[other];
+        }
+        clusterSize[label]++;
+        labels[col] = label;
+    }
+
+    private int newLabel(byte cell) {
+        if (labelCount == parent.length) {
+            int grown = labelCount * 2;
+            parent = Arrays.copyOf(parent, grown);
+            clusterSize = Arrays.copyOf(clusterSize, grown);
+            labelCell = Arrays.copyOf(labelCell, grown);
+        }
+        int label = labelCount++;
+        parent[label] = label;
+        clusterSize[label] = 0;
+        labelCell[label] = cell;
+        return label;
+    }
+
+    private int find(int label) {
+        while (parent[label] != label) {
+            // path halving
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+}
@@ -0,0 +1,262 @@
+package erehwon;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * records a run as snapshots plus the moves in between, so that any step can be rebuilt without copying
+ * the grid after every step. the directory holds step-S.snap, a snapshot of the grid after S steps, for S
+ * = 0, interval, 2 * interval, ..., and moves-S.log with the moves of steps S to S + interval - 1.
+ *
+ * a log starts with a 16-byte little-endian header (magic, version, first step) followed by one record per
+ * step: the number of moves, then for each move the square it left and, shifted left by one, the square it
+ * moved into with the low bit set for blue, all as unsigned LEB128 varints. on a 100 x 100 grid a move
+ * costs four or five bytes (two for the square left, two or three for the shifted square moved into), so
+ * a step that moves a few hundred residents still costs less than a 2500-byte snapshot.
+ *
+ * snapshots written here do not carry the grid's random generator (their seed is 0), so recording does not
+ * change the run
+ */
+public class MoveLog implements MoveRecorder, Closeable {
+    static final int MAGIC = 0x45524D4C;
+    static final int VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 16;
+    // longest encoding of a varint holding a non-negative long
+    private static final int MAX_VARINT = 10;
+
+    private final RedBlueGrid grid;
+    private final Path dir;
+    private final int snapshotInterval;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    // moves of the current step, two longs each: from, then (to << 1) | blue
+    private long[] moves = new long[64];
+    private int moveCount;
+    private long step;
+    private FileChannel segment;
+    // the recorder the grid had before, which keeps getting every move; null if none
+    private final MoveRecorder previous;
+
+    /**
+     * starts recording grid: snapshots it as step 0 and attaches itself as the grid's move recorder. a
+     * recorder the grid already had keeps getting every move, and gets the grid back on close
+     *
+     * @param grid             the grid to record
+     * @param dir              directory for the snapshots and logs; created if missing
+     * @param snapshotInterval number of steps between snapshots; >= 1
+     * @throws IOException if the directory or the first files cannot be written
+     */
+    public MoveLog(RedBlueGrid grid, Path dir, int snapshotInterval) throws IOException {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("snapshotInterval must be at least 1");
+        }
+        this.grid = grid;
+        this.dir = dir;
+        this.snapshotInterval = snapshotInterval;
+        Files.createDirectories(dir);
+        startSegment();
+        previous = grid.moveRecorder();
+        grid.setMoveRecorder(this);
+    }
+
+    @Override
+    public void move(long from, long to, byte color) {
+        if (moveCount * 2 == moves.length) {
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        }
+        moves[moveCount * 2] = from;
+        moves[moveCount * 2 + 1] = (to << 1) | (color == RedBlueGrid.BLUE ? 1 : 0);
+        moveCount++;
+        if (previous != null) {
+            previous.move(from, to, color);
+        }
+    }
+
+    @Override
+    public void endStep() {
+        try {
+            room(MAX_VARINT);
+            putVarint(moveCount);
+            for (int i = 0; i < moveCount * 2; i++) {
+                room(MAX_VARINT);
+                putVarint(moves[i]);
+            }
+            moveCount = 0;
+            step++;
+            if (step % snapshotInterval == 0) {
+                closeSegment();
+                startSegment();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (previous != null) {
+                previous.endStep();
+            }
+        }
+    }
+
+    /**
+     * @return number of steps recorded so far
+     */
+    public long steps() {
+        return step;
+    }
+
+    /**
+     * stops recording, giving the grid back the recorder it had before, and writes out the current log
+     */
+    @Override
+    public void close() throws IOException {
+        grid.setMoveRecorder(previous);
+        closeSegment();
+    }
+
+    /**
+     * snapshots the grid as of the current step and opens the log that follows it
+     */
+    private void startSegment() throws IOException {
+        try (FileChannel snapshot = FileChannel.open(dir.resolve("step-" + step + ".snap"),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            GridSnapshot.write(grid, 0, snapshot, false);
+        }
+        segment = FileChannel.open(dir.resolve("moves-" + step + ".log"),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(step);
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        flush();
+        segment.close();
+        segment = null;
+    }
+
+    private void room(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void putVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * rebuilds the grid of a recorded run as it was after the given number of steps, from the nearest
+     * snapshot at or before that step and the moves logged after it
+     *
+     * @param dir  directory a MoveLog recorded into
+     * @param step number of steps; 0 <= step <= the number recorded
+     * @return a new grid in the state of that step
+     * @throws IOException if the files cannot be read or do not reach the step
+     */
+    public static RedBlueGrid replay(Path dir, long step) throws IOException {
+        if (step < 0) {
+            throw new IllegalArgumentException("step must be non-negative");
+        }
+        long nearest = -1;
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(dir, "step-*.snap")) {
+            for (Path snapshot : snapshots) {
+                String name = snapshot.getFileName().toString();
+                long taken = Long.parseLong(name.substring("step-".length(), name.length() - ".snap".length()));
+                if (taken <= step && taken > nearest) {
+                    nearest = taken;
+                }
+            }
+        }
+        if (nearest < 0) {
+            throw new IOException("no snapshot at or before step " + step + " in " + dir);
+        }
+        RedBlueGrid grid;
+        try (FileChannel snapshot = FileChannel.open(dir.resolve("step-" + nearest + ".snap"))) {
+            grid = GridSnapshot.read(snapshot);
+        }
+        try (FileChannel log = FileChannel.open(dir.resolve("moves-" + nearest + ".log"))) {
+            VarintReader in = new VarintReader(log);
+            if (in.fixedInt() != MAGIC || in.fixedInt() != VERSION) {
+                throw new IOException("not a move log of version " + VERSION);
+            }
+            if ((in.fixedInt() & 0xFFFFFFFFL | (long) in.fixedInt() << 32) != nearest) {
+                throw new IOException("move log does not start at step " + nearest);
+            }
+            for (long s = nearest; s < step; s++) {
+                long count = in.next();
+                for (long m = 0; m < count; m++) {
+                    long from = in.next();
+                    long to = in.next();
+                    grid.applyMove(from, to >>> 1, (to & 1) != 0 ? RedBlueGrid.BLUE : RedBlueGrid.RED);
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * reads a log through a fixed-size buffer
+     */
+    private static final class VarintReader {
+        private final ReadableByteChannel in;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        VarintReader(ReadableByteChannel in) {
+            this.in = in;
+            buffer.flip();
+        }
+
+        private byte nextByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                if (in.read(buffer) < 0) {
+                    throw new EOFException("move log ends early");
+                }
+                buffer.flip();
+            }
+            return buffer.get();
+        }
+
+        int fixedInt() throws IOException {
+            int value = 0;
+            for (int k = 0; k < Integer.BYTES; k++) {
+                value |= (nextByte() & 0xFF) << (k * 8);
+            }
+            return value;
+        }
+
+        long next() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = nextByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package erehwon;
+
+/**
+ * receives the moves a RedBlueGrid makes while it steps; see RedBlueGrid.setMoveRecorder
+ */
+public interface MoveRecorder {
+
+    /**
+     * a resident moved
+     *
+     * @param from  square it left, numbered row * size + col
+     * @param to    vacant square it moved into, numbered the same way
+     * @param color RED or BLUE
+     */
+    void move(long from, long to, byte color);
+
+    /**
+     * a step ended; the moves since the previous call belong to it
+     */
+    void endStep();
+}
@@ -0,0 +1,132 @@
+package erehwon;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the built-in move strategies, weighted mixes of strategies, and a registry of strategies by name, so
+ * tools such as a sweep can pick them from the command line
+ */
+public final class MoveStrategies {
+    /** oneTimeStep: unhappy residents move to random vacant squares */
+    public static final MoveStrategy RANDOM = RedBlueGrid::oneTimeStep;
+    /** oneGroupStep: unhappy residents move to the first vacant square that makes them happy */
+    public static final MoveStrategy GROUP = RedBlueGrid::oneGroupStep;
+    /** efficientTimeStep: unhappy red residents move towards the top left corner, blue ones towards the
+     * bottom right. a grid kept in a store, which efficientTimeStep cannot step, takes oneGroupStep instead */
+    public static final MoveStrategy CORNER = grid -> grid.cells() == null ? grid.oneGroupStep() : grid.efficientTimeStep();
+    /** what simulate has always done: CORNER one time in six, GROUP otherwise */
+    public static final MoveStrategy MIXED = weighted(new MoveStrategy[]{CORNER, GROUP}, new int[]{1, 5});
+
+    // every registered strategy by name, in registration order
+    private static final Map<String, MoveStrategy> REGISTRY = new LinkedHashMap<>();
+
+    static {
+        register("random", RANDOM);
+        register("group", GROUP);
+        register("corner", CORNER);
+        register("mixed", MIXED);
+    }
+
+    private MoveStrategies() {
+    }
+
+    /**
+     * a strategy that takes, at every step, one of strategies chosen at random with the given weights,
+     * drawn from the stepped grid's generator
+     *
+     * @param strategies the strategies to choose from
+     * @param weights    weight of each strategy, as many as there are strategies; each >= 0, at least one > 0
+     * @return the mix
+     */
+    public static MoveStrategy weighted(MoveStrategy[] strategies, int[] weights) {
+        if (strategies.length != weights.length || strategies.length == 0) {
+            throw new IllegalArgumentException("need one weight per strategy, and at least one strategy");
+        }
+        MoveStrategy[] choices = strategies.clone();
+        // bounds[k] is the sum of the weights of strategies 0 .. k
+        int[] bounds = new int[weights.length];
+        long total = 0;
+        for (int k = 0; k < weights.length; k++) {
+            if (weights[k] < 0 || choices[k] == null) {
+                throw new IllegalArgumentException("weights must be non-negative and strategies not null");
+            }
+            total += weights[k];
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("weights add up to more than Integer.MAX_VALUE");
+            }
+            bounds[k] = (int) total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("at least one weight must be positive");
+        }
+        int sum = (int) total;
+        return grid -> {
+            int draw = grid.rng().nextInt(sum);
+            int k = 0;
+            while (bounds[k] <= draw) {
+                k++;
+            }
+            return choices[k].step(grid);
+        };
+    }
+
+    /**
+     * registers a strategy under a name, replacing any strategy registered under it before
+     *
+     * @param name     the name; letters, digits, '-' and '_' only
+     * @param strategy the strategy
+     */
+    public static synchronized void register(String name, MoveStrategy strategy) {
+        if (name.isEmpty() || !name.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '-' || c == '_')) {
+            throw new IllegalArgumentException("strategy names are letters, digits, '-' and '_': " + name);
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy must not be null");
+        }
+        REGISTRY.put(name, strategy);
+    }
+
+    /**
+     * @return the names of every registered strategy, in registration order
+     */
+    public static synchronized List<String> names() {
+        return new ArrayList<>(REGISTRY.keySet());
+    }
+
+    /**
+     * @param name a registered name
+     * @return the strategy registered under it
+     */
+    public static synchronized MoveStrategy get(String name) {
+        MoveStrategy strategy = REGISTRY.get(name);
+        if (strategy == null) {
+            throw new IllegalArgumentException("unknown move strategy " + name + "; known: " + REGISTRY.keySet());
+        }
+        return strategy;
+    }
+
+    /**
+     * parses a registered name, e.g. group, or a weighted mix of them, e.g. corner:1+group:5. a name in a
+     * mix without a weight has weight 1
+     *
+     * @param spec the name or mix
+     * @return the strategy
+     */
+    public static MoveStrategy parse(String spec) {
+        if (!spec.contains("+") && !spec.contains(":")) {
+            return get(spec);
+        }
+        String[] parts = spec.split("\\+");
+        MoveStrategy[] strategies = new MoveStrategy[parts.length];
+        int[] weights = new int[parts.length];
+        for (int k = 0; k < parts.length; k++) {
+            int colon = parts[k].indexOf(':');
+            strategies[k] = get(colon < 0 ? parts[k] : parts[k].substring(0, colon));
+            weights[k] = colon < 0 ? 1 : Integer.parseInt(parts[k].substring(colon + 1));
+        }
+        return weighted(strategies, weights);
+    }
+}
@@ -0,0 +1,17 @@
+package erehwon;
+
+/**
+ * one step of a grid's residents moving, as taken by RedBlueGrid.simulate and simulateUntilStable. the
+ * built-in strategies and mixes of them are in MoveStrategies
+ */
+@FunctionalInterface
+public interface MoveStrategy {
+
+    /**
+     * takes one step on grid, drawing any random choices from the grid's generator
+     *
+     * @param grid the grid to step
+     * @return number of residents that moved
+     */
+    int step(RedBlueGrid grid);
+}
@@ -0,0 +1,342 @@
+package erehwon;
+
+/**
+ * keeps, for every square of a grid, how many red and blue residents are in its neighbourhood window
+ * (the square itself included), so that happiness can be looked up without rescanning the window.
+ * on top of the counts it keeps the set of vacant squares, the set of unhappy residents, the number
+ * of happy residents and, for each colour, the set of vacant squares where a resident of that colour
+ * would be happy (the placement candidates of oneGroupStep). everything is updated in O(d^2) whenever
+ * a single square changes
+ */
+class NeighborTracker {
+    private final byte[] cells;
+    private final int size;
+    private final int distance;
+    private final Neighborhood neighborhood;
+    private final int[] reds;
+    private final int[] blues;
+    // per-row window sums, scratch space for rebuild
+    private final int[] rowReds;
+    private final int[] rowBlues;
+    private final IntIndexSet vacant;
+    private final IntIndexSet unhappy;
+    private final IntIndexSet redCandidates;
+    private final IntIndexSet blueCandidates;
+    private int happy;
+    private double threshold;
+
+    /**
+     * creates a tracker over the given cells and counts and classifies every window once
+     *
+     * @param cells        row-major cell values of the grid; read, never written
+     * @param neighborhood window tables of the grid
+     * @param threshold    happiness threshold of the grid
+     */
+    NeighborTracker(byte[] cells, Neighborhood neighborhood, double threshold) {
+        this.cells = cells;
+        this.size = neighborhood.size();
+        this.distance = neighborhood.distance();
+        this.neighborhood = neighborhood;
+        this.reds = new int[cells.length];
+        this.blues = new int[cells.length];
+        this.rowReds = new int[cells.length];
+        this.rowBlues = new int[cells.length];
+        this.vacant = new IntIndexSet(cells.length);
+        this.unhappy = new IntIndexSet(cells.length);
+        this.redCandidates = new IntIndexSet(cells.length);
+        this.blueCandidates = new IntIndexSet(cells.length);
+        rebuild(threshold);
+    }
+
+    /**
+     * recounts and reclassifies every window from scratch, in O(size^2) using running row and column sums
+     * for clipped windows and in O(size^2 * d) from the window tables otherwise
+     *
+     * @param threshold happiness threshold to classify with from now on
+     */
+    void rebuild(double threshold) {
+        this.threshold = threshold;
+        if (neighborhood.topology() == Topology.CLIPPED) {
+            countClipped();
+        } else {
+            countFromTables();
+        }
+        vacant.clear();
+        unhappy.clear();
+        redCandidates.clear();
+        blueCandidates.clear();
+        happy = 0;
+        for (int idx = 0; idx < cells.length; idx++) {
+            if (cells[idx] == RedBlueGrid.VACANT) {
+                vacant.add(idx);
+                updateCandidates(idx);
+            } else if (isHappy(idx)) {
+                happy++;
+            } else {
+                unhappy.add(idx);
+            }
+        }
+    }
+
+    /**
+     * sets reds and blues for clipped windows with running sums along each row, then along each column
+     */
+    private void countClipped() {
+        for (int row = 0; row < size; row++) {
+            int start = row * size;
+            int red = 0;
+            int blue = 0;
+            for (int col = 0; col < Math.min(distance, size); col++) {
+                red += cells[start + col] == RedBlueGrid.RED ? 1 : 0;
+                blue += cells[start + col] == RedBlueGrid.BLUE ? 1 : 0;
+            }
+            for (int col = 0; col < size; col++) {
+                int enter = col + distance;
+                if (enter < size) {
+                    red += cells[start + enter] == RedBlueGrid.RED ? 1 : 0;
+                    blue += cells[start + enter] == RedBlueGrid.BLUE ? 1 : 0;
+                }
+                int leave = col - distance - 1;
+                if (leave >= 0) {
+                    red -= cells[start + leave] == RedBlueGrid.RED ? 1 : 0;
+                    blue -= cells[start + leave] == RedBlueGrid.BLUE ? 1 : 0;
+                }
+                rowReds[start + col] = red;
+                rowBlues[start + col] = blue;
+            }
+        }
+        for (int col = 0; col < size; col++) {
+            int red = 0;
+            int blue = 0;
+            for (int row = 0; row < Math.min(distance, size); row++) {
+                red += rowReds[row * size + col];
+                blue += rowBlues[row * size + col];
+            }
+            for (int row = 0; row < size; row++) {
+                int enter = row + distance;
+                if (enter < size) {
+                    red += rowReds[enter * size + col];
+                    blue += rowBlues[enter * size + col];
+                }
+                int leave = row - distance - 1;
+                if (leave >= 0) {
+                    red -= rowReds[leave * size + col];
+                    blue -= rowBlues[leave * size + col];
+                }
+                reds[row * size + col] = red;
+                blues[row * size + col] = blue;
+            }
+        }
+    }
+
+    /**
+     * sets reds and blues by summing each row window, then each column window, from the window tables
+     */
+    private void countFromTables() {
+        int[] coords = neighborhood.coords();
+        for (int row = 0; row < size; row++) {
+            int start = row * size;
+            for (int col = 0; col < size; col++) {
+                int red = 0;
+                int blue = 0;
+                for (int k = neighborhood.start(col); k < neighborhood.start(col) + neighborhood.span(col); k++) {
+                    byte cell = cells[start + coords[k]];
+                    red += cell == RedBlueGrid.RED ? 1 : 0;
+                    blue += cell == RedBlueGrid.BLUE ? 1 : 0;
+                }
+                rowReds[start + col] = red;
+                rowBlues[start + col] = blue;
+            }
+        }
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                int red = 0;
+                int blue = 0;
+                for (int k = neighborhood.start(row); k < neighborhood.start(row) + neighborhood.span(row); k++) {
+                    red += rowReds[coords[k] * size + col];
+                    blue += rowBlues[coords[k] * size + col];
+                }
+                reds[row * size + col] = red;
+                blues[row * size + col] = blue;
+            }
+        }
+    }
+
+    /**
+     * updates the counts and classification of every window containing the square at idx after its value changed
+     *
+     * @param idx      row-major index of the square that changed
+     * @param oldValue cell value before the change
+     * @param newValue cell value after the change
+     */
+    void cellChanged(int idx, byte oldValue, byte newValue) {
+        int redDelta = (newValue == RedBlueGrid.RED ? 1 : 0) - (oldValue == RedBlueGrid.RED ? 1 : 0);
+        int blueDelta = (newValue == RedBlueGrid.BLUE ? 1 : 0) - (oldValue == RedBlueGrid.BLUE ? 1 : 0);
+        if (redDelta == 0 && blueDelta == 0) {
+            return;
+        }
+        int[] inverse = neighborhood.inverseCoords();
+        int[] counts = neighborhood.inverseCounts();
+        int rowEnd = neighborhood.inverseEnd(idx / size);
+        int colStart = neighborhood.inverseStart(idx % size);
+        int colEnd = neighborhood.inverseEnd(idx % size);
+        for (int i = neighborhood.inverseStart(idx / size); i < rowEnd; i++) {
+            int start = inverse[i] * size;
+            for (int j = colStart; j < colEnd; j++) {
+                int times = counts[i] * counts[j];
+                reds[start + inverse[j]] += redDelta * times;
+                blues[start + inverse[j]] += blueDelta * times;
+                reclassify(start + inverse[j]);
+            }
+        }
+    }
+
+    /**
+     * moves the square at idx into the set matching its current value and counts
+     */
+    private void reclassify(int idx) {
+        if (vacant.contains(idx)) {
+            vacant.remove(idx);
+        } else if (!unhappy.remove(idx)) {
+            happy--;
+        }
+        if (cells[idx] == RedBlueGrid.VACANT) {
+            vacant.add(idx);
+        } else if (isHappy(idx)) {
+            happy++;
+        } else {
+            unhappy.add(idx);
+        }
+        updateCandidates(idx);
+    }
+
+    /**
+     * puts the square at idx in the candidate set of each colour whose resident would be happy there
+     */
+    private void updateCandidates(int idx) {
+        if (cells[idx] != RedBlueGrid.VACANT) {
+            redCandidates.remove(idx);
+            blueCandidates.remove(idx);
+            return;
+        }
+        if (wouldBeHappy(idx, RedBlueGrid.RED, 0)) {
+            redCandidates.add(idx);
+        } else {
+            redCandidates.remove(idx);
+        }
+        if (wouldBeHappy(idx, RedBlueGrid.BLUE, 0)) {
+            blueCandidates.add(idx);
+        } else {
+            blueCandidates.remove(idx);
+        }
+    }
+
+    /**
+     * would a resident of the given colour be happy at the vacant square idx?
+     *
+     * @param idx     row-major index of a vacant square
+     * @param color   RED or BLUE
+     * @param leaving number of times the window of idx counts same-colour residents that leave with the move
+     * @return true if the resident would be happy at idx
+     */
+    boolean wouldBeHappy(int idx, byte color, int leaving) {
+        int same = (color == RedBlueGrid.RED ? reds[idx] : blues[idx]) - leaving;
+        return (double) same / (double) neighbors(idx) >= threshold;
+    }
+
+    /**
+     * @return the live set of vacant squares where a resident of the given colour would be happy
+     */
+    IntIndexSet candidates(byte color) {
+        return color == RedBlueGrid.RED ? redCandidates : blueCandidates;
+    }
+
+    /**
+     * @return how many times the window of the square at idx covers the square at other
+     */
+    int timesInWindow(int idx, int other) {
+        return neighborhood.multiplicity(idx / size, other / size) * neighborhood.multiplicity(idx % size, other % size);
+    }
+
+    /**
+     * @return number of happy residents
+     */
+    int happyCount() {
+        return happy;
+    }
+
+    /**
+     * @return the live set of vacant squares
+     */
+    IntIndexSet vacant() {
+        return vacant;
+    }
+
+    /**
+     * @return the live set of unhappy residents
+     */
+    IntIndexSet unhappy() {
+        return unhappy;
+    }
+
+    /**
+     * @return number of neighbours of the square at idx with the same colour as its resident
+     */
+    int sameNeighbors(int idx) {
+        byte cell = cells[idx];
+        if (cell == RedBlueGrid.RED) {
+            return reds[idx] - selfEntries(idx);
+        } else if (cell == RedBlueGrid.BLUE) {
+            return blues[idx] - selfEntries(idx);
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of neighbours of the square at idx with the other colour than its resident
+     */
+    int otherNeighbors(int idx) {
+        byte cell = cells[idx];
+        if (cell == RedBlueGrid.RED) {
+            return blues[idx];
+        } else if (cell == RedBlueGrid.BLUE) {
+            return reds[idx];
+        }
+        return 0;
+    }
+
+    /**
+     * @return number of vacant neighbours of the square at idx
+     */
+    int vacantNeighbors(int idx) {
+        int empty = neighbors(idx) - reds[idx] - blues[idx];
+        return cells[idx] == RedBlueGrid.VACANT ? empty : empty + selfEntries(idx);
+    }
+
+    /**
+     * @return number of entries in the window of the square at idx, not counting those on the square itself
+     */
+    int neighbors(int idx) {
+        return neighborhood.span(idx / size) * neighborhood.span(idx % size) - selfEntries(idx);
+    }
+
+    /**
+     * @return how many entries of the window of the square at idx fall on the square itself
+     */
+    private int selfEntries(int idx) {
+        return neighborhood.self(idx / size) * neighborhood.self(idx % size);
+    }
+
+    /**
+     * same rule as RedBlueGrid.isHappy, answered from the maintained counts
+     *
+     * @param idx row-major index of a square
+     * @return true if the square holds a happy resident
+     */
+    boolean isHappy(int idx) {
+        if (cells[idx] == RedBlueGrid.VACANT) {
+            return false;
+        }
+        return (double) sameNeighbors(idx) / (double) neighbors(idx) >= threshold;
+    }
+}
@@ -0,0 +1,200 @@
+package erehwon;
+
+/**
+ * precomputed index tables for the neighbourhood windows of one grid size, distance and topology.
+ *
+ * a window is the product of a row window and a column window, so the tables are one-dimensional: for
+ * each coordinate i, coordinate(i, k) for k in [0, span(i)) lists the rows (or columns) its window covers,
+ * with repeats where the topology maps several offsets onto the same coordinate. the inverse tables list,
+ * for each coordinate x, every coordinate whose window covers x and how many times. loops over a window
+ * walk these tables, so they have no edge tests of their own
+ */
+class Neighborhood {
+    private final int size;
+    private final int distance;
+    private final Topology topology;
+    private final int[] start;
+    private final int[] span;
+    // self[i] is how many times the window of coordinate i covers i itself
+    private final int[] self;
+    private final int[] coords;
+    private final int[] inverseStart;
+    private final int[] inverseCoords;
+    private final int[] inverseCounts;
+
+    /**
+     * @param size     length and width of the grid; >= 1
+     * @param distance neighbourhood distance; >= 0
+     * @param topology edge behaviour of the windows
+     */
+    Neighborhood(int size, int distance, Topology topology) {
+        this.size = size;
+        this.distance = distance;
+        this.topology = topology;
+        int width = 2 * distance + 1;
+        start = new int[size + 1];
+        span = new int[size];
+        coords = new int[size * width];
+        int next = 0;
+        for (int i = 0; i < size; i++) {
+            start[i] = next;
+            if (topology == Topology.CLIPPED) {
+                for (int c = Math.max(i - distance, 0); c <= Math.min(i + distance, size - 1); c++) {
+                    coords[next++] = c;
+                }
+            } else {
+                for (int k = -distance; k <= distance; k++) {
+                    coords[next++] = map(i + k);
+                }
+            }
+            span[i] = next - start[i];
+        }
+        start[size] = next;
+        self = new int[size];
+        for (int i = 0; i < size; i++) {
+            self[i] = multiplicity(i, i);
+        }
+
+        // invert: first count, then fill in order of i, then merge repeats, which are adjacent
+        int[] counts = new int[size + 1];
+        for (int j = 0; j < next; j++) {
+            counts[coords[j]]++;
+        }
+        inverseStart = new int[size + 1];
+        for (int x = 0; x < size; x++) {
+            inverseStart[x + 1] = inverseStart[x] + counts[x];
+        }
+        int[] rawCoords = new int[next];
+        int[] fill = inverseStart.clone();
+        for (int i = 0; i < size; i++) {
+            for (int j = start[i]; j < start[i + 1]; j++) {
+                rawCoords[fill[coords[j]]++] = i;
+            }
+        }
+        int[] mergedStart = new int[size + 1];
+        int[] mergedCoords = new int[next];
+        int[] mergedCounts = new int[next];
+        int merged = 0;
+        for (int x = 0; x < size; x++) {
+            mergedStart[x] = merged;
+            for (int j = inverseStart[x]; j < inverseStart[x + 1]; j++) {
+                if (merged > mergedStart[x] && mergedCoords[merged - 1] == rawCoords[j]) {
+                    mergedCounts[merged - 1]++;
+                } else {
+                    mergedCoords[merged] = rawCoords[j];
+                    mergedCounts[merged] = 1;
+                    merged++;
+                }
+            }
+        }
+        mergedStart[size] = merged;
+        System.arraycopy(mergedStart, 0, inverseStart, 0, size + 1);
+        inverseCoords = mergedCoords;
+        inverseCounts = mergedCounts;
+    }
+
+    /**
+     * maps a coordinate that may lie off the grid back onto it, for TORUS and REFLECTIVE
+     */
+    private int map(int c) {
+        if (topology == Topology.TORUS) {
+            return Math.floorMod(c, size);
+        }
+        if (size == 1) {
+            return 0;
+        }
+        int period = 2 * (size - 1);
+        int m = Math.floorMod(c, period);
+        return m < size ? m : period - m;
+    }
+
+    /**
+     * @return the coordinate a window entry at c stands for, where c may lie off the grid, or -1 if clipped
+     * windows leave it out
+     */
+    int cover(int c) {
+        if (c >= 0 && c < size) {
+            return c;
+        }
+        return topology == Topology.CLIPPED ? -1 : map(c);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int distance() {
+        return distance;
+    }
+
+    Topology topology() {
+        return topology;
+    }
+
+    /**
+     * @return number of entries in the window of coordinate i, repeats included
+     */
+    int span(int i) {
+        return span[i];
+    }
+
+    /**
+     * @return how many times the window of coordinate i covers i itself; 1 unless the window wraps onto it
+     */
+    int self(int i) {
+        return self[i];
+    }
+
+    /**
+     * @return position in coords() of the first entry of the window of coordinate i
+     */
+    int start(int i) {
+        return start[i];
+    }
+
+    /**
+     * @return the window entries of every coordinate, back to back; index with start(i) .. start(i) + span(i)
+     */
+    int[] coords() {
+        return coords;
+    }
+
+    /**
+     * @return position in inverseCoords() of the first coordinate whose window covers x
+     */
+    int inverseStart(int x) {
+        return inverseStart[x];
+    }
+
+    /**
+     * @return position in inverseCoords() just past the last coordinate whose window covers x
+     */
+    int inverseEnd(int x) {
+        return inverseStart[x + 1];
+    }
+
+    /**
+     * @return the coordinates whose windows cover each x, back to back, without repeats
+     */
+    int[] inverseCoords() {
+        return inverseCoords;
+    }
+
+    /**
+     * @return how many times the window of inverseCoords()[j] covers the x it is listed under
+     */
+    int[] inverseCounts() {
+        return inverseCounts;
+    }
+
+    /**
+     * @return how many times the window of coordinate i covers coordinate x
+     */
+    int multiplicity(int i, int x) {
+        int count = 0;
+        for (int j = start[i]; j < start[i] + span[i]; j++) {
+            count += coords[j] == x ? 1 : 0;
+        }
+        return count;
+    }
+}
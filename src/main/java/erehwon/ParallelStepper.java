@@ -0,0 +1,220 @@
+package erehwon;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.random.RandomGenerator.SplittableGenerator;
+
+/**
+ * runs random-move steps (the rule of RedBlueGrid.oneTimeStep) on several cores.
+ *
+ * each step has two phases. first the grid is cut into bands of BAND_ROWS rows and the bands are
+ * classified in parallel; every unhappy resident and every vacant square gets a random 32-bit key drawn
+ * from its band's own stream. then both pools are sorted by key and the i-th unhappy resident moves to the
+ * i-th vacant square, for i < min(unhappy, vacant), with the writes again spread over the workers.
+ * sorting by random keys is a uniform random pairing, and the band streams are split from one seed in band
+ * order, so the outcome depends only on the seed and never on the number of threads
+ */
+class ParallelStepper {
+    // fixed so that the random streams, and therefore the result, do not depend on the parallelism
+    static final int BAND_ROWS = 64;
+    // moves applied per task in the write phase
+    private static final int MOVE_CHUNK = 1 << 14;
+
+    private final RedBlueGrid grid;
+    private final int size;
+    private final int bands;
+    // per-band key buffers, reused between steps; each key is (random << 32) | square index
+    private final long[][] bandUnhappy;
+    private final long[][] bandVacant;
+    private final int[] bandUnhappyCount;
+    private final int[] bandVacantCount;
+    private final SplittableGenerator[] bandStreams;
+    private long[] unhappyKeys = new long[0];
+    private long[] vacantKeys = new long[0];
+    // prefix sums prepared for the current step, or null
+    private SummedAreaTable sums;
+
+    /**
+     * @param grid the grid to step; its size must not change while this stepper is in use
+     */
+    ParallelStepper(RedBlueGrid grid) {
+        this.grid = grid;
+        this.size = grid.size();
+        this.bands = (size + BAND_ROWS - 1) / BAND_ROWS;
+        this.bandUnhappy = new long[bands][16];
+        this.bandVacant = new long[bands][16];
+        this.bandUnhappyCount = new int[bands];
+        this.bandVacantCount = new int[bands];
+        this.bandStreams = new SplittableGenerator[bands];
+    }
+
+    /**
+     * runs the given number of steps
+     *
+     * @param steps       number of steps; >= 0
+     * @param parallelism number of worker threads; >= 1
+     * @param root        generator the per-step, per-band streams are split from
+     */
+    void run(int steps, int parallelism, SplittableGenerator root) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int step = 0; step < steps; step++) {
+                grid.beginStep("simulateParallel");
+                SplittableGenerator stepRoot = root.split();
+                for (int band = 0; band < bands; band++) {
+                    bandStreams[band] = stepRoot.split();
+                }
+                sums = grid.prepareClassification();
+                pool.invoke(new RangeTask(0, bands, 1, this::classifyBand));
+                int unhappy = gather(bandUnhappy, bandUnhappyCount, true);
+                int vacant = gather(bandVacant, bandVacantCount, false);
+                grid.classified(unhappy, vacant);
+                int moves = Math.min(unhappy, vacant);
+                if (moves == 0) {
+                    grid.endStep(0);
+                    continue;
+                }
+                pool.invoke(new SortTask(unhappyKeys, unhappy, vacantKeys, vacant));
+                if (grid.isIncremental()) {
+                    // the maintained counts are not thread safe, so moves go through the grid one by one
+                    for (int i = 0; i < moves; i++) {
+                        grid.moveResident((int) unhappyKeys[i], (int) vacantKeys[i]);
+                    }
+                } else {
+                    byte[] cells = grid.cells();
+                    pool.invoke(new RangeTask(0, moves, MOVE_CHUNK, i -> {
+                        int from = (int) unhappyKeys[i];
+                        cells[(int) vacantKeys[i]] = cells[from];
+                        cells[from] = RedBlueGrid.VACANT;
+                    }));
+                    for (int i = 0; i < moves; i++) {
+                        grid.recordMove((int) unhappyKeys[i], (int) vacantKeys[i], cells[(int) vacantKeys[i]]);
+                    }
+                }
+                grid.endStep(moves);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * phase one for a single band: finds its unhappy residents and vacant squares and keys them
+     */
+    private void classifyBand(int band) {
+        byte[] cells = grid.cells();
+        SplittableGenerator stream = bandStreams[band];
+        long[] unhappy = bandUnhappy[band];
+        long[] vacant = bandVacant[band];
+        int unhappyCount = 0;
+        int vacantCount = 0;
+        int lastRow = Math.min((band + 1) * BAND_ROWS, size);
+        for (int row = band * BAND_ROWS; row < lastRow; row++) {
+            for (int col = 0; col < size; col++) {
+                int idx = row * size + col;
+                if (cells[idx] == RedBlueGrid.VACANT) {
+                    if (vacantCount == vacant.length) {
+                        vacant = Arrays.copyOf(vacant, vacant.length * 2);
+                    }
+                    vacant[vacantCount++] = key(stream, idx);
+                } else if (!grid.isHappy(row, col, sums)) {
+                    if (unhappyCount == unhappy.length) {
+                        unhappy = Arrays.copyOf(unhappy, unhappy.length * 2);
+                    }
+                    unhappy[unhappyCount++] = key(stream, idx);
+                }
+            }
+        }
+        bandUnhappy[band] = unhappy;
+        bandVacant[band] = vacant;
+        bandUnhappyCount[band] = unhappyCount;
+        bandVacantCount[band] = vacantCount;
+    }
+
+    private static long key(SplittableGenerator stream, int idx) {
+        return ((long) stream.nextInt() << 32) | idx;
+    }
+
+    /**
+     * concatenates the per-band keys, in band order, into unhappyKeys or vacantKeys
+     *
+     * @return total number of keys
+     */
+    private int gather(long[][] perBand, int[] counts, boolean intoUnhappy) {
+        int total = 0;
+        for (int band = 0; band < bands; band++) {
+            total += counts[band];
+        }
+        long[] dest = intoUnhappy ? unhappyKeys : vacantKeys;
+        if (dest.length < total) {
+            dest = new long[Math.max(total, dest.length * 2)];
+        }
+        int offset = 0;
+        for (int band = 0; band < bands; band++) {
+            System.arraycopy(perBand[band], 0, dest, offset, counts[band]);
+            offset += counts[band];
+        }
+        if (intoUnhappy) {
+            unhappyKeys = dest;
+        } else {
+            vacantKeys = dest;
+        }
+        return total;
+    }
+
+    /**
+     * calls body for every index in [from, to), splitting the range until pieces are at most grain long
+     */
+    @SuppressWarnings("serial")
+    private static class RangeTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final IntConsumer body;
+
+        RangeTask(int from, int to, int grain, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    body.accept(i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+        }
+    }
+
+    /**
+     * sorts the two key pools; parallelSort forks into the pool this task runs in
+     */
+    @SuppressWarnings("serial")
+    private static class SortTask extends RecursiveAction {
+        private final long[] first;
+        private final int firstCount;
+        private final long[] second;
+        private final int secondCount;
+
+        SortTask(long[] first, int firstCount, long[] second, int secondCount) {
+            this.first = first;
+            this.firstCount = firstCount;
+            this.second = second;
+            this.secondCount = secondCount;
+        }
+
+        @Override
+        protected void compute() {
+            Arrays.parallelSort(first, 0, firstCount);
+            Arrays.parallelSort(second, 0, secondCount);
+        }
+    }
+}
@@ -1,22 +1,90 @@
 package erehwon;
 
 import java.awt.Color;
-import java.util.Random;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGenerator.SplittableGenerator;
+import java.util.random.RandomGeneratorFactory;
 
 public class RedBlueGrid {
+    /**
+     * cell value of a vacant square
+     */
+    public static final byte VACANT = 0;
+    /**
+     * cell value of a square occupied by a red resident
+     */
+    public static final byte RED = 1;
+    /**
+     * cell value of a square occupied by a blue resident
+     */
+    public static final byte BLUE = 2;
+
+    // indexed by cell value, so COLORS[cell] is the colour of that cell
     private static final Color[] COLORS = {Color.WHITE, Color.RED, Color.BLUE};
-    private Color[][] grid;
+    // from this neighbourhood distance on, whole-grid classification uses prefix sums
+    // instead of scanning each (2d+1)^2 window
+    private static final int SUMMED_AREA_DISTANCE = 3;
+    // steps without improvement after which simulateUntilStable reports a plateau
+    static final int DEFAULT_PLATEAU_WINDOW = 50;
+    // algorithm of the generator used when none is passed in; fast and splittable
+    private static final String DEFAULT_RANDOM = "L64X128MixRandom";
+    // the VECTOR scan engine needs the incubating Vector API, which is only there when the module was added
+    private static final boolean VECTOR_SUPPORTED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    // grids start instrumented when the JVM runs with -Derehwon.instrument=true
+    private static final boolean INSTRUMENTED_BY_DEFAULT = Boolean.getBoolean("erehwon.instrument");
+    // row-major, cells[row * size + col]; one of VACANT, RED or BLUE. null when the cells live in store
+    private byte[] cells;
+    // cells of a grid that does not use the dense layout, and the steps that work on them; otherwise null
+    private CellStore store;
+    private StoreStepper storeStepper;
     private int size;
     private int neighborhoodDistance;
     private double happinessThreshold;
+    // edge behaviour of the windows, and the window index tables built for it
+    private Topology topology = Topology.CLIPPED;
+    private Neighborhood neighborhood;
+    // source of every random choice made by the grid
+    private RandomGenerator rng;
+    // maintained neighbour counts; null unless incremental mode is on
+    private NeighborTracker tracker;
+    // reused prefix sums for whole-grid classification with large neighbourhoods
+    private SummedAreaTable summedArea;
+    private ScanEngine scanEngine = ScanEngine.SCALAR;
+    // the step simulate and simulateUntilStable take
+    private MoveStrategy moveStrategy = MoveStrategies.MIXED;
+    // row bitmasks for the BITBOARD engine; allocated on first use
+    private Bitboard bitboard;
+    // SIMD classifier for the VECTOR engine; allocated on first use
+    private VectorKernel vectorKernel;
+    // reused per-step buffers of square indices, filled by collectUnhappyAndVacant
+    private int[] unhappyBuffer;
+    private int[] vacantBuffer;
+    private int unhappyCount;
+    private int vacantCount;
+    // every square in the order efficientTimeStep visits them, and a scratch mark per square; built on first use
+    private int[] cornerOrder;
+    private byte[] cornerMarks;
+    // created on the first simulateParallel call and reused after that
+    private ParallelStepper parallelStepper;
+    // told about every move and the end of every step; null when nothing is recorded
+    private MoveRecorder recorder;
+    // measures the running step while the grid is instrumented; null otherwise
+    private StepProbe stepProbe;
+    // what the steps measured since instrumentation was last turned on did; read from any thread
+    private volatile StepStats lastStepStats;
+    private volatile StepStats totalStepStats = StepStats.NONE;
 
     /**
      * creates a new Erehwon grid
      * @param size length and width of grid
      * @param neighborhoodDistance distance between neighbor residents
-     * @param fractionVacant fraction of vacant squares in grid
-     * @param fractionRed fraction of red residents in grid
+     * @param fractionVacant fraction of vacant squares in grid; in [0, 1]
+     * @param fractionRed fraction of red residents in grid; in [0, 1]
      * @param happinessThreshold happiness threshold of grid
      */
     public RedBlueGrid(int size,
@@ -24,45 +92,254 @@ public class RedBlueGrid {
                        double fractionVacant,
                        double fractionRed,
                        double happinessThreshold) {
-        grid = new Color[size][size];
+        this(size, neighborhoodDistance, fractionVacant, fractionRed, happinessThreshold,
+            RandomGeneratorFactory.of(DEFAULT_RANDOM).create());
+    }
+
+    /**
+     * creates a new Erehwon grid whose placement and moves are reproducible from a seed
+     * @param size length and width of grid
+     * @param neighborhoodDistance distance between neighbor residents
+     * @param fractionVacant fraction of vacant squares in grid; in [0, 1]
+     * @param fractionRed fraction of red residents in grid; in [0, 1]
+     * @param happinessThreshold happiness threshold of grid
+     * @param seed seed of the grid's random generator; equal seeds give equal runs
+     */
+    public RedBlueGrid(int size,
+                       int neighborhoodDistance,
+                       double fractionVacant,
+                       double fractionRed,
+                       double happinessThreshold,
+                       long seed) {
+        this(size, neighborhoodDistance, fractionVacant, fractionRed, happinessThreshold,
+            RandomGeneratorFactory.of(DEFAULT_RANDOM).create(seed));
+    }
+
+    /**
+     * creates a new Erehwon grid that draws every random choice from the given generator
+     * @param size length and width of grid
+     * @param neighborhoodDistance distance between neighbor residents
+     * @param fractionVacant fraction of vacant squares in grid; in [0, 1]
+     * @param fractionRed fraction of red residents in grid; in [0, 1]
+     * @param happinessThreshold happiness threshold of grid
+     * @param rng random generator used by the constructor, reset and every step; not null
+     */
+    public RedBlueGrid(int size,
+                       int neighborhoodDistance,
+                       double fractionVacant,
+                       double fractionRed,
+                       double happinessThreshold,
+                       RandomGenerator rng) {
+        this.rng = rng;
+        cells = new byte[size * size];
         this.size = size;
         this.neighborhoodDistance = neighborhoodDistance;
         this.happinessThreshold = happinessThreshold;
+        this.neighborhood = new Neighborhood(size, neighborhoodDistance, topology);
+        setInstrumented(INSTRUMENTED_BY_DEFAULT);
 
-        //grid parameters
-        int squares = size * size;
-        int reds = (int) Math.round((100.0 - fractionVacant) * squares * fractionRed * 0.0001);
-        int vacants = (int) Math.round(squares * fractionVacant * 0.01);
-        int blues = squares - reds - vacants;
-        int bluesPlaced = 0;
-        int redsPlaced = 0;
-        int vacantsPlaced = 0;
-        int row = 0;
-        int col = 0;
-        Random rng = new Random();
-        int x;
-        for (int i = 0; i < squares; i++) {
-            x = rng.nextInt((reds - redsPlaced) + (blues - bluesPlaced) + (vacants - vacantsPlaced));
-            if (x < (reds - redsPlaced) && redsPlaced < reds) {
-                redsPlaced++;
-                setColor(row, col, Color.RED);
-                row++;
-            } else if (x >= ((reds - redsPlaced) + (blues - bluesPlaced)) && vacantsPlaced < vacants) {
-                vacantsPlaced++;
-                setColor(row, col, Color.WHITE);
-                row++;
-            } else if (bluesPlaced < blues) {
-                bluesPlaced++;
-                setColor(row, col, Color.BLUE);
-                row++;
-            }
+        place(fractionVacant, fractionRed);
+    }
 
-            if (row == size) {
-                row = 0;
-                col++;
-            }
+    /**
+     * creates a grid without placing anyone: over the given store, which keeps its contents, or all vacant
+     * in the dense layout when store is null
+     */
+    private RedBlueGrid(int size, CellStore store, int neighborhoodDistance, double happinessThreshold, RandomGenerator rng) {
+        this.rng = rng;
+        if (store == null) {
+            cells = new byte[size * size];
+        } else {
+            this.store = store;
+            this.storeStepper = new StoreStepper(this, store);
+        }
+        this.size = size;
+        this.neighborhoodDistance = neighborhoodDistance;
+        this.happinessThreshold = happinessThreshold;
+        this.neighborhood = new Neighborhood(size, neighborhoodDistance, topology);
+        setInstrumented(INSTRUMENTED_BY_DEFAULT);
+    }
 
+    /**
+     * creates a grid for huge, mostly vacant worlds. squares are kept two bits each in 64 x 64 tiles that
+     * are only allocated while they hold a resident, and fractionHappy and the steps skip vacant tiles.
+     * getColor, setColor, isHappy and fractionHappy work as usual. the steps never list the vacant squares,
+     * of which there may be billions, but draw random squares until one is vacant, so they follow looser
+     * rules than on the dense layout: oneTimeStep may move a resident into a square vacated earlier in the
+     * same step, oneGroupStep tries a few random vacant squares per resident instead of every one, and
+     * both slow down as the grid fills, a draw taking size * size / vacant tries on average; see those
+     * methods. simulate's strategies take these steps (corner takes oneGroupStep). incremental mode,
+     * efficientTimeStep and simulateParallel need the dense layout and are not available
+     *
+     * @param size                 length and width of the grid; may exceed 46340
+     * @param neighborhoodDistance distance between neighbor residents
+     * @param fractionVacant       fraction of squares that are vacant
+     * @param fractionRed          fraction of residents that are red
+     * @param happinessThreshold   happiness threshold of the grid
+     * @param seed                 seed of the grid's random generator
+     * @return the new grid
+     */
+    public static RedBlueGrid tiled(int size,
+                                    int neighborhoodDistance,
+                                    double fractionVacant,
+                                    double fractionRed,
+                                    double happinessThreshold,
+                                    long seed) {
+        RandomGenerator rng = RandomGeneratorFactory.of(DEFAULT_RANDOM).create(seed);
+        RedBlueGrid grid = new RedBlueGrid(size, new TiledCellStore(size), neighborhoodDistance, happinessThreshold, rng);
+        grid.reset(fractionVacant, fractionRed, happinessThreshold, rng);
+        return grid;
+    }
+
+    /**
+     * creates a grid kept in a memory-mapped file, so it may be larger than the heap; the operating system
+     * pages squares in and out. it supports the same operations as a tiled grid. the file keeps two copies
+     * of the squares, the live one and the one of the last checkpoint (or of creation), so it takes half a
+     * byte per square; open restarts from the checkpoint, even after a crash
+     *
+     * @param file                 the file to create; an existing file is overwritten
+     * @param size                 length and width of the grid
+     * @param neighborhoodDistance distance between neighbor residents
+     * @param fractionVacant       fraction of squares that are vacant
+     * @param fractionRed          fraction of residents that are red
+     * @param happinessThreshold   happiness threshold of the grid
+     * @param seed                 seed of the grid's random generator
+     * @return the new grid
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public static RedBlueGrid mapped(Path file,
+                                     int size,
+                                     int neighborhoodDistance,
+                                     double fractionVacant,
+                                     double fractionRed,
+                                     double happinessThreshold,
+                                     long seed) throws IOException {
+        RandomGenerator rng = RandomGeneratorFactory.of(DEFAULT_RANDOM).create(seed);
+        RedBlueGrid grid = new RedBlueGrid(size, MappedCellStore.create(file, size), neighborhoodDistance, happinessThreshold, rng);
+        grid.reset(fractionVacant, fractionRed, happinessThreshold, rng);
+        grid.checkpoint();
+        return grid;
+    }
+
+    /**
+     * reopens a grid file written by mapped, in the state of its last checkpoint, without placing anyone;
+     * changes made after that checkpoint are dropped. steps taken after reopening are the same as those the
+     * grid took right after that checkpoint. no other grid may be using the file
+     *
+     * @param file the grid file
+     * @return the grid kept in the file
+     * @throws IOException if the file cannot be mapped or is not a grid file
+     */
+    public static RedBlueGrid open(Path file) throws IOException {
+        MappedCellStore store = MappedCellStore.open(file);
+        RandomGenerator rng = RandomGeneratorFactory.of(DEFAULT_RANDOM).create(store.seed());
+        RedBlueGrid grid = new RedBlueGrid(store.size(), store, store.distance(), store.threshold(), rng);
+        grid.setTopology(store.topology());
+        return grid;
+    }
+
+    /**
+     * makes the current squares of a grid created by mapped the restart point of its file: forces them to
+     * disk, records them and the parameters in the header, then copies them to the file's other copy of the
+     * squares, which later changes go to. so a checkpoint is not just a force of the changed pages: it also
+     * reads and writes every square once, for a file that can be reopened after a crash. the random
+     * generator cannot be saved as it is, so it is replaced by one seeded from itself and that seed is
+     * recorded
+     */
+    public void checkpoint() {
+        if (!(store instanceof MappedCellStore)) {
+            throw new IllegalStateException("only a grid kept in a file can be checkpointed");
         }
+        MappedCellStore mapped = (MappedCellStore) store;
+        long seed = reseed();
+        mapped.checkpoint(neighborhoodDistance, topology, happinessThreshold, seed);
+    }
+
+    /**
+     * writes a snapshot of the grid: its parameters, a generator seed and the squares packed two bits each,
+     * streamed through a small buffer. as with checkpoint, the generator is replaced by one seeded from
+     * itself, so this grid and any grid loaded from the snapshot take the same steps from here on
+     *
+     * @param out      channel to write to; left open
+     * @param compress true to deflate the packed squares
+     * @throws IOException if writing fails
+     */
+    public void save(WritableByteChannel out, boolean compress) throws IOException {
+        GridSnapshot.write(this, reseed(), out, compress);
+    }
+
+    /**
+     * reads a grid written by save. the grid uses the dense layout when it has at most Integer.MAX_VALUE
+     * squares and the tiled layout otherwise
+     *
+     * @param in channel to read from; left open, positioned just past the snapshot when it was not compressed
+     * @return the grid of the snapshot
+     * @throws IOException if reading fails or the data is not a snapshot
+     */
+    public static RedBlueGrid load(ReadableByteChannel in) throws IOException {
+        return GridSnapshot.read(in);
+    }
+
+    /**
+     * creates an all-vacant grid without running the placement loop, for snapshots to fill
+     */
+    static RedBlueGrid vacant(int size, int neighborhoodDistance, double happinessThreshold, long seed) {
+        RandomGenerator rng = RandomGeneratorFactory.of(DEFAULT_RANDOM).create(seed);
+        CellStore store = (long) size * size > Integer.MAX_VALUE ? new TiledCellStore(size) : null;
+        return new RedBlueGrid(size, store, neighborhoodDistance, happinessThreshold, rng);
+    }
+
+    /**
+     * replaces the generator by a fresh one seeded from it
+     *
+     * @return the seed of the new generator
+     */
+    private long reseed() {
+        long seed = rng.nextLong();
+        rng = RandomGeneratorFactory.of(DEFAULT_RANDOM).create(seed);
+        return seed;
+    }
+
+    /**
+     * @return neighbourhood distance of the grid
+     */
+    int neighborhoodDistance() {
+        return neighborhoodDistance;
+    }
+
+    /**
+     * @return happiness threshold of the grid
+     */
+    double happinessThreshold() {
+        return happinessThreshold;
+    }
+
+    /**
+     * @return the store holding the cells, or null for the dense layout
+     */
+    CellStore store() {
+        return store;
+    }
+
+    /**
+     * @return the generator behind every random choice of the grid
+     */
+    RandomGenerator rng() {
+        return rng;
+    }
+
+    /**
+     * @return length and width of the grid
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the row-major cell values backing this grid; callers must keep the maintained state in sync
+     */
+    byte[] cells() {
+        return cells;
     }
 
     /**
@@ -76,7 +353,31 @@ public class RedBlueGrid {
         if (row >= size | col >= size | col < 0 | row < 0) {
             return null;
         }
-        return grid[row][col];
+        return COLORS[getCell(row, col)];
+    }
+
+    /**
+     * @return the colour getColor shows for a cell value of VACANT, RED or BLUE
+     */
+    static Color toColor(byte cell) {
+        return COLORS[cell];
+    }
+
+    /**
+     * Gets the cell value of the square at a certain row and column
+     *
+     * @param row the row in which the square resides
+     * @param col the column in which the square resides
+     * @return VACANT, RED or BLUE for the square at the specified row and column; -1 if it is not on the grid
+     */
+    public byte getCell(int row, int col) {
+        if (row >= size | col >= size | col < 0 | row < 0) {
+            return -1;
+        }
+        if (store != null) {
+            return store.get(row, col);
+        }
+        return cells[row * size + col];
     }
 
     /**
@@ -91,13 +392,273 @@ public class RedBlueGrid {
         if (row >= size | col >= size | col < 0 | row < 0) {
             return false;
         }
-        if (color == Color.BLUE || color == Color.WHITE || color == Color.RED) {
-            grid[row][col] = color;
-            return true;
+        setCell(row, col, toCell(color));
+        return true;
+    }
+
+    /**
+     * converts one of the three allowed colours to its cell value
+     *
+     * @param color the colour to convert; must be red, blue, or white
+     * @return the cell value of the colour
+     */
+    private static byte toCell(Color color) {
+        if (color == Color.WHITE) {
+            return VACANT;
+        } else if (color == Color.RED) {
+            return RED;
+        } else if (color == Color.BLUE) {
+            return BLUE;
+        }
+        throw new IllegalArgumentException("Color not allowed!");
+    }
+
+    /**
+     * writes a cell value, keeping the neighbour counts up to date in incremental mode; row and col must be on the grid
+     */
+    private void setCell(int row, int col, byte cell) {
+        if (store != null) {
+            store.set(row, col, cell);
+            return;
+        }
+        writeCell(row * size + col, cell);
+    }
+
+    private void writeCell(int idx, byte cell) {
+        byte old = cells[idx];
+        cells[idx] = cell;
+        if (tracker != null) {
+            tracker.cellChanged(idx, old, cell);
+        }
+    }
+
+    /**
+     * turns incremental mode on or off. in incremental mode the grid keeps, for every square, the number of
+     * red and blue residents in its neighbourhood, plus the sets of vacant squares and unhappy residents,
+     * and updates them in O(d^2) whenever a square changes. isHappy and fractionHappy are then O(1), the
+     * random and group steps no longer scan the grid, and oneGroupStep finds a happy-making vacant square
+     * from an index instead of trying each one. this costs twelve ints of memory per square
+     *
+     * @param incremental true to maintain neighbour counts, false to rescan the neighbourhood on every isHappy
+     */
+    public void setIncremental(boolean incremental) {
+        if (!incremental) {
+            tracker = null;
+        } else if (store != null) {
+            throw new IllegalStateException("incremental mode needs the dense layout");
+        } else if (tracker == null) {
+            tracker = new NeighborTracker(cells, neighborhood, happinessThreshold);
+        }
+    }
+
+    /**
+     * chooses how neighbourhood windows behave at the edges of the grid. with CLIPPED (the default) edge
+     * squares have smaller windows; with TORUS and REFLECTIVE every window has (2d+1)^2 entries, and a
+     * square may appear in a window more than once when the window is wider than the grid. a resident never
+     * counts its own square as a neighbour, however often the window covers it: every entry of the window
+     * that falls on the resident's own square is left out of both the same-colour count and the total
+     *
+     * @param topology the edge behaviour to use from now on
+     */
+    public void setTopology(Topology topology) {
+        if (topology == this.topology) {
+            return;
+        }
+        this.topology = topology;
+        neighborhood = new Neighborhood(size, neighborhoodDistance, topology);
+        if (tracker != null) {
+            tracker = new NeighborTracker(cells, neighborhood, happinessThreshold);
+        }
+    }
+
+    /**
+     * @return the edge behaviour of the neighbourhood windows
+     */
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * chooses how fractionHappy and the unhappy-resident scan of oneTimeStep and oneGroupStep classify the
+     * residents when neighbour counts are not maintained. BITBOARD only applies to neighbourhood distance 1
+     * with clipped windows on the dense layout, and VECTOR to the dense layout when the Vector API module is
+     * present; elsewhere the grid keeps scanning like SCALAR (the default)
+     *
+     * @param scanEngine the engine to use from now on
+     */
+    public void setScanEngine(ScanEngine scanEngine) {
+        this.scanEngine = scanEngine;
+    }
+
+    /**
+     * @return the engine chosen for classifying every resident at once
+     */
+    public ScanEngine getScanEngine() {
+        return scanEngine;
+    }
+
+    /**
+     * chooses the step simulate and simulateUntilStable take; MoveStrategies.MIXED, efficientTimeStep one
+     * time in six and oneGroupStep otherwise, unless changed
+     *
+     * @param moveStrategy the strategy to use from now on; not null
+     */
+    public void setMoveStrategy(MoveStrategy moveStrategy) {
+        if (moveStrategy == null) {
+            throw new IllegalArgumentException("moveStrategy must not be null");
+        }
+        this.moveStrategy = moveStrategy;
+    }
+
+    /**
+     * @return the step simulate and simulateUntilStable take
+     */
+    public MoveStrategy getMoveStrategy() {
+        return moveStrategy;
+    }
+
+    /**
+     * records every move made by the step methods from now on, as (from, to, colour) with squares numbered
+     * row * size + col, and the end of every step. tentative placements that oneGroupStep takes back are not
+     * moves. changes made through setColor, shiftColor and reset are not recorded
+     *
+     * @param recorder receives the moves; null to stop recording
+     */
+    public void setMoveRecorder(MoveRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return the recorder set with setMoveRecorder, or null
+     */
+    MoveRecorder moveRecorder() {
+        return recorder;
+    }
+
+    /**
+     * tells the recorder, if any, that the resident of colour color at square from moves to square to
+     */
+    void recordMove(long from, long to, byte color) {
+        if (recorder != null) {
+            recorder.move(from, to, color);
+        }
+    }
+
+    /**
+     * measures every step from now on, or stops measuring: how long it took to find the unhappy residents
+     * and vacant squares and how long to place them, how many of each there were, how many residents moved,
+     * how many squares oneGroupStep tried in vain and how many bytes the step allocated. the measures can
+     * be polled with lastStepStats and totalStepStats, and every step is also a Flight Recorder event named
+     * erehwon.Step. turning instrumentation on starts the totals again from zero; a grid that is not
+     * instrumented only pays for a null check or two per step. grids start instrumented when the JVM runs
+     * with -Derehwon.instrument=true
+     *
+     * @param instrumented true to measure steps
+     */
+    public void setInstrumented(boolean instrumented) {
+        if (instrumented == (stepProbe != null)) {
+            return;
+        }
+        if (instrumented) {
+            lastStepStats = null;
+            totalStepStats = StepStats.NONE;
+            stepProbe = new StepProbe(size);
         } else {
-            throw new IllegalArgumentException("Color not allowed!");
+            stepProbe = null;
+        }
+    }
+
+    /**
+     * @return true if the grid is measuring its steps
+     */
+    public boolean isInstrumented() {
+        return stepProbe != null;
+    }
+
+    /**
+     * may be called from any thread while the grid steps
+     *
+     * @return what the last measured step did, or null if no step has been measured since instrumentation
+     * was turned on
+     */
+    public StepStats lastStepStats() {
+        return lastStepStats;
+    }
+
+    /**
+     * may be called from any thread while the grid steps
+     *
+     * @return the sums over every step measured since instrumentation was turned on
+     */
+    public StepStats totalStepStats() {
+        return totalStepStats;
+    }
+
+    /**
+     * tells the probe, if any, that a step of the named method starts
+     */
+    void beginStep(String method) {
+        if (stepProbe != null) {
+            stepProbe.begin(method);
         }
+    }
 
+    /**
+     * tells the probe, if any, that the running step has found its unhappy residents and vacant squares
+     */
+    void classified(long unhappy, long vacant) {
+        if (stepProbe != null) {
+            stepProbe.classified(unhappy, vacant);
+        }
+    }
+
+    /**
+     * tells the probe, if any, that count vacant squares were tried in vain in the running step
+     */
+    void failedProbes(int count) {
+        if (stepProbe != null) {
+            stepProbe.failedProbes(count);
+        }
+    }
+
+    /**
+     * tells the recorder, if any, that a step has ended, and the probe, if any, to measure it
+     *
+     * @param moves number of residents that moved in the step
+     * @return moves
+     */
+    int endStep(int moves) {
+        if (recorder != null) {
+            recorder.endStep();
+        }
+        if (stepProbe != null) {
+            StepStats step = stepProbe.end(moves);
+            lastStepStats = step;
+            totalStepStats = totalStepStats.plus(step);
+        }
+        return moves;
+    }
+
+    /**
+     * replays a recorded move: the square at to takes color and the square at from becomes vacant
+     */
+    void applyMove(long from, long to, byte color) {
+        setCell((int) (to / size), (int) (to % size), color);
+        setCell((int) (from / size), (int) (from % size), VACANT);
+    }
+
+    /**
+     * @return the maintained neighbour counts, or null if incremental mode is off
+     */
+    NeighborTracker tracker() {
+        return tracker;
+    }
+
+    /**
+     * @return true if the grid is maintaining neighbour counts
+     */
+    public boolean isIncremental() {
+        return tracker != null;
     }
 
     /**
@@ -107,12 +668,13 @@ public class RedBlueGrid {
      * @param col the column in which the square resides; 0 <= row <= grid size - 1
      */
     public void shiftColor(int row, int col) {
-        if (grid[row][col] == Color.WHITE) {
-            grid[row][col] = Color.RED;
-        } else if (grid[row][col] == Color.RED) {
-            grid[row][col] = Color.BLUE;
+        byte cell = getCell(row, col);
+        if (cell == VACANT) {
+            setCell(row, col, RED);
+        } else if (cell == RED) {
+            setCell(row, col, BLUE);
         } else {
-            grid[row][col] = Color.WHITE;
+            setCell(row, col, VACANT);
         }
 
     }
@@ -121,44 +683,104 @@ public class RedBlueGrid {
      * resets the grid randomly with a certain fraction of white, red and blue squares, as well as a specified happiness threshold
      *
      * @param fractionVacant     fraction of squares that will be vacant in the resetted grid
-     * @param fractionRed        fraction of squares that will be red in the resetted grid
+     * @param fractionRed        fraction of residents that will be red in the resetted grid
      * @param happinessThreshold the happiness threshold of the resetted grid
      */
     public void reset(double fractionVacant,
                       double fractionRed,
                       double happinessThreshold) {
+        reset(fractionVacant, fractionRed, happinessThreshold, rng);
+    }
+
+    /**
+     * resets the grid like reset(fractionVacant, fractionRed, happinessThreshold), with a freshly seeded
+     * random generator so the new arrangement and every later move are reproducible
+     *
+     * @param fractionVacant     fraction of squares that will be vacant in the resetted grid
+     * @param fractionRed        fraction of residents that will be red in the resetted grid
+     * @param happinessThreshold the happiness threshold of the resetted grid
+     * @param seed               seed of the grid's new random generator
+     */
+    public void reset(double fractionVacant,
+                      double fractionRed,
+                      double happinessThreshold,
+                      long seed) {
+        reset(fractionVacant, fractionRed, happinessThreshold, RandomGeneratorFactory.of(DEFAULT_RANDOM).create(seed));
+    }
+
+    /**
+     * resets the grid like reset(fractionVacant, fractionRed, happinessThreshold), drawing the new
+     * arrangement and every later move from the given generator
+     *
+     * @param fractionVacant     fraction of squares that will be vacant in the resetted grid
+     * @param fractionRed        fraction of residents that will be red in the resetted grid
+     * @param happinessThreshold the happiness threshold of the resetted grid
+     * @param rng                random generator the grid uses from now on; not null
+     */
+    public void reset(double fractionVacant,
+                      double fractionRed,
+                      double happinessThreshold,
+                      RandomGenerator rng) {
+        this.rng = rng;
         this.happinessThreshold = happinessThreshold;
-        int squares = size * size;
+        if (store != null) {
+            placeInStore(fractionVacant, fractionRed);
+            return;
+        }
+        place(fractionVacant, fractionRed);
+        if (tracker != null) {
+            tracker.rebuild(happinessThreshold);
+        }
+    }
 
+    /**
+     * the placement of the constructors and reset: writes the exact number of reds, blues and vacant
+     * squares into the cells in one pass, then shuffles them in place with Fisher-Yates, which gives every
+     * arrangement with those counts the same probability
+     *
+     * @param fractionVacant fraction of squares that are vacant; in [0, 1]
+     * @param fractionRed    fraction of residents that are red; in [0, 1]
+     */
+    private void place(double fractionVacant, double fractionRed) {
+        checkFractions(fractionVacant, fractionRed);
+        int squares = cells.length;
         int vacants = (int) Math.round(squares * fractionVacant);
-        int reds = (int) Math.round((1.0 - fractionVacant) * squares * fractionRed);
-        int blues = squares - reds - vacants;
-        int bluesPlaced = 0;
-        int redsPlaced = 0;
-        int vacantsPlaced = 0;
-        int row = 0;
-        int col = 0;
-        Random rng = new Random();
-        int x;
-        for (int i = 0; i < squares; i++) {
-            x = rng.nextInt((reds - redsPlaced) + (blues - bluesPlaced) + (vacants - vacantsPlaced));
-            if (x < (reds - redsPlaced) && redsPlaced < reds) {
-                redsPlaced++;
-                setColor(row, col, Color.RED);
-                row++;
-            } else if (x >= ((reds - redsPlaced) + (blues - bluesPlaced)) && vacantsPlaced < vacants) {
-                vacantsPlaced++;
-                setColor(row, col, Color.WHITE);
-                row++;
-            } else if (bluesPlaced < blues) {
-                bluesPlaced++;
-                setColor(row, col, Color.BLUE);
-                row++;
-            }
+        int reds = (int) Math.min(Math.round((1.0 - fractionVacant) * squares * fractionRed), squares - vacants);
+        Arrays.fill(cells, 0, reds, RED);
+        Arrays.fill(cells, reds, squares - vacants, BLUE);
+        Arrays.fill(cells, squares - vacants, squares, VACANT);
+        CellShuffle.shuffle(cells, rng);
+    }
+
+    private static void checkFractions(double fractionVacant, double fractionRed) {
+        if (!(fractionVacant >= 0 && fractionVacant <= 1 && fractionRed >= 0 && fractionRed <= 1)) {
+            throw new IllegalArgumentException("fractions must be in [0, 1], not percentages");
+        }
+    }
 
-            if (row == size) {
-                row = 0;
-                col++;
+    /**
+     * reset's placement for a grid kept in a store: every square in turn takes a value drawn in proportion
+     * to the values still to be placed. vacant squares are never written, so vacant tiles stay unallocated
+     */
+    private void placeInStore(double fractionVacant, double fractionRed) {
+        checkFractions(fractionVacant, fractionRed);
+        store.clear();
+        long squares = (long) size * size;
+        long vacants = Math.round(squares * fractionVacant);
+        long reds = Math.min(Math.round((1.0 - fractionVacant) * squares * fractionRed), squares - vacants);
+        long blues = squares - reds - vacants;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                long x = rng.nextLong(reds + blues + vacants);
+                if (x < reds) {
+                    reds--;
+                    store.set(row, col, RED);
+                } else if (x < reds + blues) {
+                    blues--;
+                    store.set(row, col, BLUE);
+                } else {
+                    vacants--;
+                }
             }
         }
     }
@@ -171,29 +793,98 @@ public class RedBlueGrid {
      * @return true if the square is happy; false if it is unhappy
      */
     public boolean isHappy(int row, int col) {
-        Color current = getColor(row, col);
-        int nonColors = 0;
-        int colors = -1;
-        int vacant = 0;
-        for (int i = row - neighborhoodDistance >= 0 ? row - neighborhoodDistance : 0; row + neighborhoodDistance < size ? i <= row + neighborhoodDistance : i < size; i++) {
-            for (int j = col - neighborhoodDistance >= 0 ? col - neighborhoodDistance : 0; col + neighborhoodDistance < size ? j <= col + neighborhoodDistance : j < size; j++) {
-                if (grid[i][j] == Color.WHITE) {
-                    vacant++;
-                } else if (grid[i][j] == current) {
-                    colors++;
-                } else {
-                    nonColors++;
+        if (tracker != null) {
+            return tracker.isHappy(row * size + col);
+        }
+        byte current = getCell(row, col);
+        if (current == VACANT || current == -1) {
+            return false;
+        }
+        // walk the precomputed window tables, so the loops need no edge tests and the body no branches
+        int[] coords = neighborhood.coords();
+        int rowFirst = neighborhood.start(row);
+        int rowLast = rowFirst + neighborhood.span(row);
+        int colFirst = neighborhood.start(col);
+        int colLast = colFirst + neighborhood.span(col);
+        // the window's entries on the resident's own square are not neighbours
+        int self = neighborhood.self(row) * neighborhood.self(col);
+        int same = -self;
+        if (store != null) {
+            for (int i = rowFirst; i < rowLast; i++) {
+                for (int j = colFirst; j < colLast; j++) {
+                    same += store.get(coords[i], coords[j]) == current ? 1 : 0;
+                }
+            }
+        } else {
+            for (int i = rowFirst; i < rowLast; i++) {
+                int rowStart = coords[i] * size;
+                for (int j = colFirst; j < colLast; j++) {
+                    same += cells[rowStart + coords[j]] == current ? 1 : 0;
                 }
-
             }
         }
+        double total = (double) (neighborhood.span(row) * neighborhood.span(col) - self);
+        return (double) same / total >= happinessThreshold;
+    }
+
+    /**
+     * prepares for classifying every square of the current grid at once. when the neighbourhood is
+     * large (and counts are not already maintained) this builds prefix sums so each window is four lookups.
+     * the prefix sums only cover clipped windows
+     *
+     * @return prefix sums of the current cells, or null if isHappy should be used directly
+     */
+    SummedAreaTable prepareClassification() {
+        if (tracker != null || store != null || neighborhoodDistance < SUMMED_AREA_DISTANCE || topology != Topology.CLIPPED) {
+            return null;
+        }
+        if (summedArea == null || summedArea.size() != size) {
+            summedArea = new SummedAreaTable(size);
+        }
+        summedArea.build(cells);
+        return summedArea;
+    }
+
+    /**
+     * prepares the bitboard engine when it is chosen and applies to this grid
+     *
+     * @return row bitmasks of the current cells, or null if the residents should be classified one by one
+     */
+    Bitboard prepareBitboard() {
+        if (scanEngine != ScanEngine.BITBOARD || tracker != null || store != null || neighborhoodDistance != 1
+            || topology != Topology.CLIPPED) {
+            return null;
+        }
+        if (bitboard == null || bitboard.size() != size) {
+            bitboard = new Bitboard(size);
+        }
+        bitboard.build(cells, happinessThreshold);
+        return bitboard;
+    }
 
-        double total = (double) nonColors + (double) vacant + (double) colors;
-        double currentHappiness = (double) colors / total;
-        if (currentHappiness >= happinessThreshold) {
-            return true;
+    /**
+     * @return the SIMD classifier when the vector engine is chosen and applies to this grid, or null if the
+     * residents should be classified another way
+     */
+    VectorKernel prepareVectorKernel() {
+        if (scanEngine != ScanEngine.VECTOR || !VECTOR_SUPPORTED || tracker != null || store != null
+            || neighborhoodDistance > VectorKernel.MAX_DISTANCE) {
+            return null;
+        }
+        if (vectorKernel == null || vectorKernel.neighborhood() != neighborhood) {
+            vectorKernel = new VectorKernel(neighborhood);
         }
-        return false;
+        return vectorKernel;
+    }
+
+    /**
+     * isHappy, answered from prefix sums when they were prepared; only valid until the next cell change
+     */
+    boolean isHappy(int row, int col, SummedAreaTable sums) {
+        if (sums != null) {
+            return sums.isHappy(cells, row, col, neighborhoodDistance, happinessThreshold);
+        }
+        return isHappy(row, col);
     }
 
     /**
@@ -202,14 +893,31 @@ public class RedBlueGrid {
      * @return fraction of happy Erehwon residents
      */
     public double fractionHappy() {
+        if (tracker != null) {
+            return (double) tracker.happyCount() / (double) (size * size - tracker.vacant().size());
+        }
+        if (store != null) {
+            return storeStepper.fractionHappy();
+        }
+        Bitboard board = prepareBitboard();
+        if (board != null) {
+            return (double) board.happyCount() / (double) board.residentCount();
+        }
+        VectorKernel kernel = prepareVectorKernel();
+        if (kernel != null) {
+            int unhappy = kernel.classify(cells, happinessThreshold, null, null);
+            int residents = cells.length - kernel.vacantCount();
+            return (double) (residents - unhappy) / (double) residents;
+        }
         double happyOnes = 0.0;
         double whites = 0.0;
+        SummedAreaTable sums = prepareClassification();
         for (int i = 0; i < size; i++) {
             for (int j = 0; j < size; j++) {
 
-                if (getColor(i, j) == Color.WHITE) {
+                if (cells[i * size + j] == VACANT) {
                     whites++;
-                } else if (isHappy(i, j)) {
+                } else if (isHappy(i, j, sums)) {
                     happyOnes += 1.0;
                 }
             }
@@ -220,213 +928,416 @@ public class RedBlueGrid {
 
 
     /**
-     * simulates one time step of unhappy Erehwon residents randomly moving to a vacant spot
+     * fills the scratch buffers with the index of every unhappy resident and every vacant square, in
+     * row-major order, or in set order when the sets are maintained in incremental mode. the counts are
+     * left in unhappyCount and vacantCount. the buffers are allocated once and reused by every step
      */
-    public void oneTimeStep() {
-
-        ArrayList<int[]> unHappyCords = new ArrayList<>();
-        ArrayList<int[]> vacantCords = new ArrayList<>();
+    private void collectUnhappyAndVacant() {
+        ensureBuffers();
+        if (tracker != null) {
+            unhappyCount = tracker.unhappy().copyTo(unhappyBuffer);
+            vacantCount = tracker.vacant().copyTo(vacantBuffer);
+            return;
+        }
+        Bitboard board = prepareBitboard();
+        if (board != null) {
+            unhappyCount = board.collect(unhappyBuffer, vacantBuffer);
+            vacantCount = cells.length - board.residentCount();
+            return;
+        }
+        VectorKernel kernel = prepareVectorKernel();
+        if (kernel != null) {
+            unhappyCount = kernel.classify(cells, happinessThreshold, unhappyBuffer, vacantBuffer);
+            vacantCount = kernel.vacantCount();
+            return;
+        }
+        SummedAreaTable sums = prepareClassification();
+        int unhappy = 0;
+        int vacant = 0;
         for (int i = 0; i < size; i++) {
             for (int j = 0; j < size; j++) {
-                if (grid[i][j] == Color.WHITE) {
-                    int[] cords = {i, j};
-                    vacantCords.add(cords);
-                    continue;
-                }
-                if (!isHappy(i, j)) {
-                    int[] cords = {i, j};
-                    unHappyCords.add(cords);
+                int idx = i * size + j;
+                if (cells[idx] == VACANT) {
+                    vacantBuffer[vacant++] = idx;
+                } else if (!isHappy(i, j, sums)) {
+                    unhappyBuffer[unhappy++] = idx;
                 }
             }
         }
+        unhappyCount = unhappy;
+        vacantCount = vacant;
+    }
 
-        Random rand = new Random();
-
-        while (unHappyCords.size() > 0 && vacantCords.size() > 0) {
-            int unHappyIdx = rand.nextInt(unHappyCords.size());
-            int vacantIdx = rand.nextInt(vacantCords.size());
-            int[] unHappyCord = unHappyCords.get(unHappyIdx);
-            int[] vacantCord = vacantCords.get(vacantIdx);
-            this.setColor(vacantCord[0], vacantCord[1], this.getColor(unHappyCord[0], unHappyCord[1]));
-            this.setColor(unHappyCord[0], unHappyCord[1], Color.WHITE); /*not sure if i add this to vacantcords array since its vacant now?*/
-            unHappyCords.remove(unHappyIdx);
-            vacantCords.remove(vacantIdx);
+    private void ensureBuffers() {
+        if (unhappyBuffer == null || unhappyBuffer.length != cells.length) {
+            unhappyBuffer = new int[cells.length];
+            vacantBuffer = new int[cells.length];
         }
     }
 
+    /**
+     * moves the resident at from into the vacant square at to, leaving from vacant
+     */
+    void moveResident(int from, int to) {
+        recordMove(from, to, cells[from]);
+        writeCell(to, cells[from]);
+        writeCell(from, VACANT);
+    }
 
     /**
-     * iterates through vacant spots and places unhappy residents there IF they will be happy. if there are unhappy residents left after grid iteration, they will be randomly placed in remaining vanact spots
+     * simulates one time step of unhappy Erehwon residents randomly moving to a vacant spot.
+     * min(unhappy, vacant) random unhappy residents each move to a distinct random vacant square;
+     * squares vacated during the step are not reused in the same step. on a grid kept in a store (tiled or
+     * mapped) each mover draws random squares until it hits a vacant one instead, so a square vacated
+     * earlier in the step may be reused, and a draw takes size * size / vacant tries on average
+     *
+     * @return number of residents that moved
      */
-    public void oneGroupStep() {
+    public int oneTimeStep() {
+        beginStep("oneTimeStep");
+        if (store != null) {
+            return endStep(storeStepper.oneTimeStep());
+        }
+        collectUnhappyAndVacant();
+        classified(unhappyCount, vacantCount);
+        int moves = Math.min(unhappyCount, vacantCount);
 
-        ArrayList<int[]> unHappyCords = new ArrayList<>();
-        ArrayList<int[]> vacantCords = new ArrayList<>();
-        for (int i = 0; i < size; i++) {
-            for (int j = 0; j < size; j++) {
-                if (grid[i][j] == Color.WHITE) {
-                    int[] cords = {i, j};
-                    vacantCords.add(cords);
-                    continue;
-                }
-                if (!isHappy(i, j)) {
-                    int[] cords = {i, j};
-                    unHappyCords.add(cords);
-                }
-            }
+        // partial Fisher-Yates: slot i of each buffer receives a random pick from the slots not used yet
+        for (int i = 0; i < moves; i++) {
+            swap(unhappyBuffer, i, i + rng.nextInt(unhappyCount - i));
+            swap(vacantBuffer, i, i + rng.nextInt(vacantCount - i));
+            moveResident(unhappyBuffer[i], vacantBuffer[i]);
+        }
+        return endStep(moves);
+    }
+
+    private static void swap(int[] buffer, int i, int j) {
+        int tmp = buffer[i];
+        buffer[i] = buffer[j];
+        buffer[j] = tmp;
+    }
+
+
+    /**
+     * iterates through vacant spots and places unhappy residents there IF they will be happy. if there are unhappy residents left after grid iteration, they will be randomly placed in remaining vanact spots.
+     * in incremental mode the vacant spots that would make each colour happy are indexed, so a spot is found without scanning,
+     * and the step follows different rules, so from the same seed the two modes give different grids. a spot is tested
+     * with the mover already gone from home rather than still there, so a spot next to home may count one same-colour
+     * neighbour fewer; the spot is the first suitable one from a random candidate on rather than the first in row-major
+     * order; and a resident that moves made happy earlier in the step stays where it is instead of moving.
+     * on a grid kept in a store (tiled or mapped) vacant spots are not listed: each unhappy resident tries
+     * up to 32 random vacant squares, drawn as in oneTimeStep, before it is left for the random moves
+     *
+     * @return number of residents that moved
+     */
+    public int oneGroupStep() {
+        beginStep("oneGroupStep");
+        if (tracker != null) {
+            return endStep(indexedGroupStep());
         }
-        boolean match;
-        int vacantSpot;
-        for (int i = 0; i < unHappyCords.size(); i++) {
-            match = false;
-            vacantSpot = 0;
-            while (!match && vacantSpot < vacantCords.size()) {
-                int[] unHappyCord = unHappyCords.get(i);
-                int[] vacantCord = vacantCords.get(vacantSpot);
-                this.setColor(vacantCord[0], vacantCord[1], this.getColor(unHappyCord[0], unHappyCord[1]));
-                if (isHappy(vacantCord[0], vacantCord[1])) {
-                    this.setColor(unHappyCord[0], unHappyCord[1], Color.WHITE); /*not sure if i add this to vacantcords array since its vacant now?*/
-                    unHappyCords.remove(i);
-                    vacantCords.remove(vacantSpot);
+        if (store != null) {
+            return endStep(storeStepper.oneGroupStep());
+        }
+        collectUnhappyAndVacant();
+        classified(unhappyCount, vacantCount);
+        int left = 0;
+        int vacant = vacantCount;
+        int moves = 0;
+        int failed = 0;
+        for (int i = 0; i < unhappyCount; i++) {
+            int from = unhappyBuffer[i];
+            byte color = cells[from];
+            boolean match = false;
+            for (int spot = 0; spot < vacant && !match; spot++) {
+                int to = vacantBuffer[spot];
+                // tried with the mover still at home
+                writeCell(to, color);
+                if (isHappy(to / size, to % size)) {
+                    recordMove(from, to, color);
+                    writeCell(from, VACANT);
+                    // the spots left keep their order, so later residents try them in the same order
+                    System.arraycopy(vacantBuffer, spot + 1, vacantBuffer, spot, vacant - spot - 1);
+                    vacant--;
+                    moves++;
                     match = true;
-                    i--;
                 } else {
-                    this.setColor(vacantCord[0], vacantCord[1], Color.WHITE);
-
+                    writeCell(to, VACANT);
+                    failed++;
                 }
-                vacantSpot++;
-
+            }
+            if (!match) {
+                unhappyBuffer[left++] = from;
             }
         }
+        failedProbes(failed);
 
-        Random rand = new Random();
-
-        while (unHappyCords.size() > 0 && vacantCords.size() > 0) {
-            int unHappyIdx = rand.nextInt(unHappyCords.size());
-            int vacantIdx = rand.nextInt(vacantCords.size());
-            int[] unHappyCord = unHappyCords.get(unHappyIdx);
-            int[] vacantCord = vacantCords.get(vacantIdx);
-            this.setColor(vacantCord[0], vacantCord[1], this.getColor(unHappyCord[0], unHappyCord[1]));
-            this.setColor(unHappyCord[0], unHappyCord[1], Color.WHITE);
-            unHappyCords.remove(unHappyIdx);
-            vacantCords.remove(vacantIdx);
+        int randomMoves = Math.min(left, vacant);
+        for (int i = 0; i < randomMoves; i++) {
+            swap(unhappyBuffer, i, i + rng.nextInt(left - i));
+            swap(vacantBuffer, i, i + rng.nextInt(vacant - i));
+            moveResident(unhappyBuffer[i], vacantBuffer[i]);
         }
+        return endStep(moves + randomMoves);
     }
 
     /**
-     * moves unhappy red residents to top left corner and unhappy blue residents to bottom right corner
+     * oneGroupStep in incremental mode. every resident that was unhappy at the start of the step, and still
+     * is, moves to a random vacant square where it will be happy, drawn from the candidate set of its colour.
+     * residents with no such square then move to random vacant squares, as in oneTimeStep
+     *
+     * @return number of residents that moved
      */
-    public void efficientTimeStep() {
-
-        ArrayList<int[]> unHappyCords = new ArrayList<int[]>();
-        ArrayList<int[]> vacantCords = new ArrayList<int[]>();
-        int k;
-
-        int row;
-        int col;
-
-
-        for (int diag = 0; diag <= size; diag++) {
-            row = 0;
-            col = diag - 1;
-            while (row < diag) {
-
-                if (grid[row][col] == Color.WHITE) {
-                    int[] cords = {row, col};
-                    vacantCords.add(cords);
-                    row++;
-                    col--;
-                    continue;
-                }
-                if (!isHappy(row, col)) {
-                    if (getColor(row, col) == Color.RED) {
-                        k = 1;
-
-                    } else {
-                        k = 2;
-
-                    }
-
-                    int[] cords = {row, col, k};
-                    unHappyCords.add(cords);
-                }
-                row++;
-                col--;
+    private int indexedGroupStep() {
+        ensureBuffers();
+        IntIndexSet unhappy = tracker.unhappy();
+        int count = unhappy.copyTo(unhappyBuffer);
+        classified(count, tracker.vacant().size());
+        int left = 0;
+        int moves = 0;
+        for (int i = 0; i < count; i++) {
+            int from = unhappyBuffer[i];
+            if (!unhappy.contains(from)) {
+                // earlier moves made this resident happy
+                continue;
+            }
+            int to = findPlacement(from);
+            if (to < 0) {
+                unhappyBuffer[left++] = from;
+            } else {
+                moveResident(from, to);
+                moves++;
             }
-
-
         }
-
-        for (int diag = size - 1; diag >= 0; diag--) {
-            row = 0;
-            col = diag - 1;
-            while (row < diag) {
-                if (grid[size - 1 - row][size - 1 - col] == Color.WHITE) {
-                    int[] cords = {size - 1 - row, size - 1 - col};
-                    vacantCords.add(cords);
-                    row++;
-                    col--;
-                    continue;
-                }
-                if (!isHappy(size - 1 - row, size - 1 - col)) {
-                    if (getColor(size - 1 - row, size - 1 - col) == Color.RED) {
-                        k = 1;
-
-                    } else {
-                        k = 2;
-
-                    }
-
-                    int[] cords = {size - 1 - row, size - 1 - col, k};
-                    unHappyCords.add(cords);
-                }
-                row++;
-                col--;
+        int stillUnhappy = 0;
+        for (int i = 0; i < left; i++) {
+            if (unhappy.contains(unhappyBuffer[i])) {
+                unhappyBuffer[stillUnhappy++] = unhappyBuffer[i];
             }
+        }
+        int vacant = tracker.vacant().copyTo(vacantBuffer);
+        int randomMoves = Math.min(stillUnhappy, vacant);
+        for (int i = 0; i < randomMoves; i++) {
+            swap(unhappyBuffer, i, i + rng.nextInt(stillUnhappy - i));
+            swap(vacantBuffer, i, i + rng.nextInt(vacant - i));
+            moveResident(unhappyBuffer[i], vacantBuffer[i]);
+        }
+        return moves + randomMoves;
+    }
 
-
+    /**
+     * finds a vacant square where the resident at from would be happy once it has moved there. candidates
+     * are probed from a random slot onwards; only candidates in the mover's own window can fail, because
+     * the mover stops counting as its own neighbour, so at most (2d+1)^2 probes fail
+     *
+     * @param from row-major index of an occupied square
+     * @return row-major index of a suitable vacant square, or -1 if there is none
+     */
+    private int findPlacement(int from) {
+        byte color = cells[from];
+        IntIndexSet candidates = tracker.candidates(color);
+        int n = candidates.size();
+        if (n == 0) {
+            return -1;
+        }
+        int start = rng.nextInt(n);
+        for (int probe = 0; probe < n; probe++) {
+            int to = candidates.get((start + probe) % n);
+            if (tracker.wouldBeHappy(to, color, tracker.timesInWindow(to, from))) {
+                failedProbes(probe);
+                return to;
+            }
         }
+        failedProbes(n);
+        return -1;
+    }
 
-        while (unHappyCords.size() > 0 && vacantCords.size() > 0) {
+    /**
+     * moves unhappy red residents to top left corner and unhappy blue residents to bottom right corner.
+     * squares are ordered by anti-diagonal: from the top left corner up to and including the main
+     * anti-diagonal, each diagonal from its top row down, and then on past it to the bottom right corner, each
+     * diagonal from its bottom row up. unhappy residents move in that order, a red one into the first vacant
+     * square left in it and a blue one into the last, so blue fills from the bottom right corner back. the
+     * unhappy residents and vacant squares are found by the grid's usual scan and then put in that order
+     * through a table of the squares built once, so the step is linear in the number of squares
+     *
+     * @return number of residents that moved
+     */
+    public int efficientTimeStep() {
+        if (store != null) {
+            throw new IllegalStateException("efficientTimeStep needs the dense layout");
+        }
+        beginStep("efficientTimeStep");
+        collectUnhappyAndVacant();
+        classified(unhappyCount, vacantCount);
+        if (cornerOrder == null || cornerOrder.length != cells.length) {
+            cornerOrder = cornerOrder(size);
+            cornerMarks = new byte[cells.length];
+        }
 
+        // mark the squares found in row-major order, then collect them again in corner order
+        for (int i = 0; i < unhappyCount; i++) {
+            cornerMarks[unhappyBuffer[i]] = 1;
+        }
+        for (int i = 0; i < vacantCount; i++) {
+            cornerMarks[vacantBuffer[i]] = 2;
+        }
+        int unhappy = 0;
+        int vacant = 0;
+        for (int idx : cornerOrder) {
+            byte mark = cornerMarks[idx];
+            if (mark == 1) {
+                unhappyBuffer[unhappy++] = idx;
+            } else if (mark == 2) {
+                vacantBuffer[vacant++] = idx;
+            }
+            cornerMarks[idx] = 0;
+        }
 
-            int[] unHappyCord = unHappyCords.get(0);
+        // the vacant squares form a deque: red residents take them from the head, blue ones from the tail
+        int moves = Math.min(unhappy, vacant);
+        int head = 0;
+        int tail = vacant;
+        for (int i = 0; i < moves; i++) {
+            int from = unhappyBuffer[i];
+            moveResident(from, cells[from] == RED ? vacantBuffer[head++] : vacantBuffer[--tail]);
+        }
+        return endStep(moves);
+    }
 
-            if (unHappyCord[2] == 1) {
-                int[] vacantCord = vacantCords.get(0);
-                this.setColor(vacantCord[0], vacantCord[1], Color.RED);
-                this.setColor(unHappyCord[0], unHappyCord[1], Color.WHITE); /*not sure if i add this to vacantcords array since its vacant now?*/
-                unHappyCords.remove(0);
-                vacantCords.remove(0);
-            } else {
-                int[] vacantCord = vacantCords.get(vacantCords.size() - 1);
-                this.setColor(vacantCord[0], vacantCord[1], Color.BLUE);
-                this.setColor(unHappyCord[0], unHappyCord[1], Color.WHITE); /*not sure if i add this to vacantcords array since its vacant now?*/
-                unHappyCords.remove(0);
-                vacantCords.remove(vacantCords.size() - 1);
+    /**
+     * @return the row-major index of every square of a grid of the given size, in the order efficientTimeStep
+     * visits them
+     */
+    static int[] cornerOrder(int size) {
+        int[] order = new int[size * size];
+        int next = 0;
+        // anti-diagonals row + col = 0 .. size - 1, each from its top row down
+        for (int sum = 0; sum < size; sum++) {
+            for (int row = 0; row <= sum; row++) {
+                order[next++] = row * size + sum - row;
             }
-
         }
+        // anti-diagonals row + col = size .. 2 size - 2, each from its bottom row up
+        for (int sum = size; sum <= 2 * size - 2; sum++) {
+            for (int row = size - 1; row > sum - size; row--) {
+                order[next++] = row * size + sum - row;
+            }
+        }
+        return order;
     }
 
     /**
-     * simulates efficientTimeStep and oneGroupStep for numSteps steps
+     * simulates numSteps steps of the grid's move strategy; by default efficientTimeStep one time in six and
+     * oneGroupStep otherwise (a grid kept in a store always takes oneGroupStep)
      *
      * @param numSteps number of steps
      */
     public void simulate(int numSteps) {
-        int whichOne;
+        simulate(numSteps, moveStrategy);
+    }
+
+    /**
+     * simulates numSteps steps of the given strategy, leaving the grid's own strategy as it is
+     *
+     * @param numSteps number of steps
+     * @param strategy the step to take; not null
+     */
+    public void simulate(int numSteps, MoveStrategy strategy) {
         for (int i = 0; i < numSteps; i++) {
-            Random rand = new Random();
-            whichOne = rand.nextInt(6);
-            if (whichOne == 0) {
-                this.efficientTimeStep();
+            strategy.step(this);
+        }
+    }
 
-            } else {
+    /**
+     * runs the steps of simulate until the grid is stable, with a plateau window of DEFAULT_PLATEAU_WINDOW steps
+     *
+     * @param maxSteps most steps to run
+     * @return how many steps ran, why the run stopped and the final fraction of happy residents
+     */
+    public SimulationResult simulateUntilStable(int maxSteps) {
+        return simulateUntilStable(maxSteps, DEFAULT_PLATEAU_WINDOW, 0.0);
+    }
 
-                this.oneGroupStep();
+    /**
+     * runs the steps of simulate until every resident is happy, a step moves nobody (so nothing can
+     * change any more), fractionHappy has not risen more than tolerance above its best value for
+     * plateauWindow steps in a row (the grid is cycling or stuck), or maxSteps steps have run.
+     * happiness is checked after every step, which is O(1) in incremental mode
+     *
+     * @param maxSteps      most steps to run
+     * @param plateauWindow number of steps without improvement that counts as a plateau; >= 1
+     * @param tolerance     smallest rise in fractionHappy that counts as improvement; >= 0
+     * @return how many steps ran, why the run stopped and the final fraction of happy residents
+     */
+    public SimulationResult simulateUntilStable(int maxSteps, int plateauWindow, double tolerance) {
+        return simulateUntilStable(maxSteps, plateauWindow, tolerance, null);
+    }
+
+    /**
+     * runs simulateUntilStable(maxSteps, plateauWindow, tolerance), telling listener about every step. the
+     * run stops with reason STOPPED when the listener returns false, unless the step also settled the grid
+     *
+     * @param maxSteps      most steps to run
+     * @param plateauWindow number of steps without improvement that counts as a plateau; >= 1
+     * @param tolerance     smallest rise in fractionHappy that counts as improvement; >= 0
+     * @param listener      told about every step on the calling thread; null for none
+     * @return how many steps ran, why the run stopped and the final fraction of happy residents
+     */
+    public SimulationResult simulateUntilStable(int maxSteps, int plateauWindow, double tolerance,
+                                                StepListener listener) {
+        if (plateauWindow < 1 || tolerance < 0) {
+            throw new IllegalArgumentException("plateauWindow must be positive and tolerance non-negative");
+        }
+        double happy = fractionHappy();
+        double best = happy;
+        int sinceImprovement = 0;
+        int steps = 0;
+        while (true) {
+            if (happy == 1.0) {
+                return new SimulationResult(steps, SimulationResult.Reason.ALL_HAPPY, happy);
+            }
+            if (steps >= maxSteps) {
+                return new SimulationResult(steps, SimulationResult.Reason.MAX_STEPS, happy);
+            }
+            int moves = moveStrategy.step(this);
+            steps++;
+            happy = fractionHappy();
+            boolean goOn = listener == null || listener.afterStep(steps, happy);
+            if (moves == 0) {
+                return new SimulationResult(steps, SimulationResult.Reason.NO_MOVES, happy);
+            }
+            if (happy > best + tolerance) {
+                best = happy;
+                sinceImprovement = 0;
+            } else if (++sinceImprovement >= plateauWindow) {
+                return new SimulationResult(steps, SimulationResult.Reason.PLATEAU, happy);
+            }
+            if (!goOn && happy != 1.0 && steps < maxSteps) {
+                return new SimulationResult(steps, SimulationResult.Reason.STOPPED, happy);
             }
         }
+    }
 
+    /**
+     * simulates numSteps random-move steps (the rule of oneTimeStep) on several cores. happiness is
+     * classified in parallel over bands of rows, then unhappy residents are paired with vacant squares
+     * by random keys drawn from per-band streams split from one seed taken from this grid's generator.
+     * the result depends only on that seed, not on parallelism
+     *
+     * @param numSteps    number of steps
+     * @param parallelism number of worker threads; >= 1
+     */
+    public void simulateParallel(int numSteps, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (store != null) {
+            throw new IllegalStateException("simulateParallel needs the dense layout");
+        }
+        if (parallelStepper == null) {
+            parallelStepper = new ParallelStepper(this);
+        }
+        SplittableGenerator root = (SplittableGenerator) RandomGeneratorFactory.of(DEFAULT_RANDOM).create(rng.nextLong());
+        parallelStepper.run(numSteps, parallelism, root);
     }
 }
\ No newline at end of file
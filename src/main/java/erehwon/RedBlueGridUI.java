@@ -2,14 +2,14 @@ package erehwon;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.Hashtable;
+import java.util.stream.IntStream;
 
 public class RedBlueGridUI extends JFrame {
-    private static final int GRID_SIZE = 15;
-    private static final double DEFAULT_VACANT = 15;
-    private static final double DEFAULT_RED = 50;
+    private static final int DEFAULT_GRID_SIZE = 15;
+    private static final double DEFAULT_VACANT = 0.15;
+    private static final double DEFAULT_RED = 0.5;
     private static final int DEFAULT_NEIGHBORHOOD_DISTANCE = 1;
     private static final double DEFAULT_HAPPINESS_THRESHOLD = 0.30;
 
@@ -17,52 +17,60 @@ public class RedBlueGridUI extends JFrame {
     private static final int DEFAULT_WINDOW_WIDTH  = 480;
     private static final String DEFAULT_UI_NAME = "EREHWON";
 
-    private final int SIMULATION_STEPS = 20;
-
-    private static final Color[] COLORS = {Color.RED, Color.BLUE, Color.WHITE};
+    private final int MAX_SIMULATION_STEPS = 1000;
+    private static final int FRAMES_PER_SECOND = 30;
 
     private RedBlueGrid rbgrid;
 
-    private final JButton[][] gridUI = new JButton[GRID_SIZE][GRID_SIZE];
+    private final GridView gridView;
+    // single steps run since the grid was last reset, for the title
+    private int steps;
+
+    // the running simulation, which owns rbgrid until it is done; null when none is running
+    private SimulationWorker worker;
+    private JMenuItem resetItem;
+    private JMenuItem simulateItem;
+    private JMenuItem oneStepItem;
+    private JMenuItem pauseItem;
+    private JMenuItem cancelItem;
 
     /**
      * Create a new GridUI for an instance of Erehwon
      */
     public RedBlueGridUI() {
-        setLayout(new GridLayout(GRID_SIZE, GRID_SIZE));
+        this(DEFAULT_GRID_SIZE);
+    }
+
+    /**
+     * Create a new GridUI for an instance of Erehwon of the given size. the grid is drawn as an image, so
+     * sizes in the thousands stay responsive; zoom with the mouse wheel and pan by dragging
+     *
+     * @param size length and width of the grid
+     */
+    public RedBlueGridUI(int size) {
+        setLayout(new BorderLayout());
         setTitle(DEFAULT_UI_NAME);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(DEFAULT_WINDOW_WIDTH, DEFAULT_WINDOW_HEIGHT);
 
-        this.rbgrid = new RedBlueGrid(GRID_SIZE,
+        this.rbgrid = new RedBlueGrid(size,
             DEFAULT_NEIGHBORHOOD_DISTANCE,
             DEFAULT_VACANT,
             DEFAULT_RED,
             DEFAULT_HAPPINESS_THRESHOLD);
+        rbgrid.setScanEngine(ScanEngine.BITBOARD);
 
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                JButton button = new JButton();
-                button.setBackground(rbgrid.getColor(row, col));
-                button.setOpaque(true);
-                button.setBorderPainted(false);
-                button.setBorder(BorderFactory.createLineBorder(Color.BLACK));
-                button.setActionCommand(row + "," + col);
-                button.addActionListener(new ActionListener() {
-                    @Override
-                    public void actionPerformed(ActionEvent e) {
-                        String command = e.getActionCommand();
-                        String[] posStr = command.split(",");
-                        int row = Integer.parseInt(posStr[0]);
-                        int col = Integer.parseInt(posStr[1]);
-                        rbgrid.shiftColor(row, col);
-                        button.setBackground(rbgrid.getColor(row, col));
-                    }
-                });
-                gridUI[row][col] = button;
-                add(button);
+        gridView = new GridView(size);
+        gridView.setSquareClickListener((row, col) -> {
+            if (worker != null) {
+                return;
             }
-        }
+            rbgrid.shiftColor(row, col);
+            gridView.showSquare(row, col, rbgrid.getCell(row, col));
+        });
+        gridView.showAll(rbgrid);
+        add(gridView, BorderLayout.CENTER);
+
         // Create menu bar
         JMenuBar menuBar = new JMenuBar();
         setJMenuBar(menuBar);
@@ -72,16 +80,34 @@ public class RedBlueGridUI extends JFrame {
         menuBar.add(operationsMenu);
 
         // Add menu items
-        addMenuItem(operationsMenu, "reset", e -> showResetDialog());
-        addMenuItem(operationsMenu, "simulate", e -> simulate());
-        addMenuItem(operationsMenu, "one step", e -> oneStep());
+        resetItem = addMenuItem(operationsMenu, "reset", e -> showResetDialog());
+        simulateItem = addMenuItem(operationsMenu, "simulate", e -> simulate());
+        oneStepItem = addMenuItem(operationsMenu, "one step", e -> oneStep());
+        addMenuItem(operationsMenu, "fit to window", e -> gridView.fitToView());
+        pauseItem = addMenuItem(operationsMenu, "pause", e -> togglePause());
+        cancelItem = addMenuItem(operationsMenu, "cancel", e -> cancel());
         addMenuItem(operationsMenu, "exit", e -> exit());
+        updateMenu();
     }
 
-    private void addMenuItem(JMenu menu, String title, ActionListener actionListener) {
+    private JMenuItem addMenuItem(JMenu menu, String title, ActionListener actionListener) {
         JMenuItem menuItem = new JMenuItem(title);
         menuItem.addActionListener(actionListener);
         menu.add(menuItem);
+        return menuItem;
+    }
+
+    /**
+     * enables the items that may be used now: the ones that change the grid only while no simulation runs
+     */
+    private void updateMenu() {
+        boolean running = worker != null;
+        resetItem.setEnabled(!running);
+        simulateItem.setEnabled(!running);
+        oneStepItem.setEnabled(!running);
+        pauseItem.setEnabled(running);
+        pauseItem.setText(running && worker.isPaused() ? "resume" : "pause");
+        cancelItem.setEnabled(running);
     }
 
     private void showResetDialog() {
@@ -139,56 +165,91 @@ public class RedBlueGridUI extends JFrame {
     }
 
     private void recolorUI() {
-        for (int row = 0; row < GRID_SIZE; row++) {
-            for (int col = 0; col < GRID_SIZE; col++) {
-                gridUI[row][col].setBackground(rbgrid.getColor(row, col));
-            }
-        }
+        gridView.showAll(rbgrid);
+    }
+
+    private void showFrame(GridFrame frame) {
+        gridView.show(frame);
+        setTitle(String.format("%s - step %d, %.1f%% happy", DEFAULT_UI_NAME, frame.step(), 100 * frame.fractionHappy()));
     }
 
     private void reset(int redFraction, int whiteFraction, int happinessThreshold) {
         rbgrid.reset((1.0 * whiteFraction) / 100, (1.0 * redFraction) / 100, (1.0 * happinessThreshold) / 100);
+        steps = 0;
         recolorUI();
     }
 
+    /**
+     * runs the simulation in the background, showing its progress as it goes
+     */
     private void simulate() {
-        while (rbgrid.fractionHappy() != 1.0) {
-            rbgrid.simulate(SIMULATION_STEPS);
-
-
+        worker = new SimulationWorker(rbgrid, MAX_SIMULATION_STEPS, FRAMES_PER_SECOND, this::showFrame, result -> {
+            worker = null;
+            updateMenu();
+        });
+        updateMenu();
+        worker.execute();
+    }
 
-            try {
+    private void togglePause() {
+        if (worker.isPaused()) {
+            worker.resume();
+        } else {
+            worker.pause();
+        }
+        updateMenu();
+    }
 
-                Thread.sleep(25);
+    private void cancel() {
+        worker.stop();
+    }
 
+    /**
+     * runs one step and redraws only the squares its moves touched, as a simulation's frames do
+     */
+    private void oneStep() {
+        IntStream.Builder touched = IntStream.builder();
+        // note the squares every move touches, passing the moves on to a recorder already attached
+        MoveRecorder previous = rbgrid.moveRecorder();
+        rbgrid.setMoveRecorder(new MoveRecorder() {
+            @Override
+            public void move(long from, long to, byte color) {
+                touched.add((int) from);
+                touched.add((int) to);
+                if (previous != null) {
+                    previous.move(from, to, color);
+                }
             }
-            catch (Exception e) {
 
-                throw new RuntimeException("Unexpected problem with sleep");
+            @Override
+            public void endStep() {
+                if (previous != null) {
+                    previous.endStep();
+                }
             }
-
-
-
-
+        });
+        try {
+            rbgrid.oneTimeStep();
+        } finally {
+            rbgrid.setMoveRecorder(previous);
         }
-        recolorUI();
-    }
-
-    private void oneStep() {
-        rbgrid.oneTimeStep();
-        recolorUI();
+        showFrame(GridFrame.of(rbgrid, ++steps, rbgrid.fractionHappy(), touched.build().toArray()));
     }
 
     private void exit() {
+        if (worker != null) {
+            worker.stop();
+        }
         System.out.println("Exit");
         System.exit(0);
     }
 
     public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_GRID_SIZE;
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new RedBlueGridUI().setVisible(true);
+                new RedBlueGridUI(size).setVisible(true);
             }
         });
     }
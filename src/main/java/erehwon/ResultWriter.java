@@ -0,0 +1,54 @@
+package erehwon;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.function.Consumer;
+
+/**
+ * streams run results to a writer as CSV or JSON lines, one line per result, flushed as it is written
+ * so partial sweeps can be read while they run
+ */
+public class ResultWriter implements Consumer<RunResult>, Closeable {
+    /**
+     * output formats
+     */
+    public enum Format { CSV, JSONL }
+
+    private final BufferedWriter out;
+    private final Format format;
+
+    /**
+     * @param out    where results go; closed by close
+     * @param format how each result is written; CSV starts with a header line
+     */
+    public ResultWriter(Writer out, Format format) {
+        this.out = new BufferedWriter(out);
+        this.format = format;
+        if (format == Format.CSV) {
+            writeLine(RunResult.CSV_HEADER);
+        }
+    }
+
+    @Override
+    public synchronized void accept(RunResult result) {
+        writeLine(format == Format.CSV ? result.toCsv() : result.toJson());
+    }
+
+    private void writeLine(String line) {
+        try {
+            out.write(line);
+            out.newLine();
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
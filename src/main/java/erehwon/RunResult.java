@@ -0,0 +1,114 @@
+package erehwon;
+
+import java.util.Locale;
+
+/**
+ * the outcome of one run of a parameter sweep
+ */
+public class RunResult {
+    /**
+     * column names matching toCsv
+     */
+    public static final String CSV_HEADER =
+        "run,size,fractionVacant,fractionRed,happinessThreshold,neighborhoodDistance,seed,steps,reason,fractionHappy,segregation,strategy";
+
+    private final int run;
+    private final int size;
+    private final double fractionVacant;
+    private final double fractionRed;
+    private final double happinessThreshold;
+    private final int neighborhoodDistance;
+    private final long seed;
+    private final int steps;
+    private final SimulationResult.Reason reason;
+    private final double fractionHappy;
+    private final double segregation;
+    private final String strategy;
+
+    /**
+     * @param run                  number of the run within its sweep
+     * @param size                 length and width of the grid
+     * @param fractionVacant       fraction of vacant squares
+     * @param fractionRed          fraction of residents that are red
+     * @param happinessThreshold   happiness threshold
+     * @param neighborhoodDistance neighbourhood distance
+     * @param seed                 seed the run was started from
+     * @param steps                steps taken
+     * @param reason               why the run stopped
+     * @param fractionHappy        fraction of happy residents at the end
+     * @param segregation          mean share of same-colour residents among each resident's occupied neighbours
+     * @param strategy             move strategy of the run, as accepted by MoveStrategies.parse
+     */
+    public RunResult(int run, int size, double fractionVacant, double fractionRed, double happinessThreshold,
+                     int neighborhoodDistance, long seed, int steps, SimulationResult.Reason reason,
+                     double fractionHappy, double segregation, String strategy) {
+        this.run = run;
+        this.size = size;
+        this.fractionVacant = fractionVacant;
+        this.fractionRed = fractionRed;
+        this.happinessThreshold = happinessThreshold;
+        this.neighborhoodDistance = neighborhoodDistance;
+        this.seed = seed;
+        this.steps = steps;
+        this.reason = reason;
+        this.fractionHappy = fractionHappy;
+        this.segregation = segregation;
+        this.strategy = strategy;
+    }
+
+    public int run() {
+        return run;
+    }
+
+    public int steps() {
+        return steps;
+    }
+
+    public SimulationResult.Reason reason() {
+        return reason;
+    }
+
+    /**
+     * @return true if every resident was happy at the end of the run
+     */
+    public boolean converged() {
+        return reason == SimulationResult.Reason.ALL_HAPPY;
+    }
+
+    public double fractionHappy() {
+        return fractionHappy;
+    }
+
+    public double segregation() {
+        return segregation;
+    }
+
+    public String strategy() {
+        return strategy;
+    }
+
+    /**
+     * @return the result as one CSV line, without a line terminator, in CSV_HEADER order
+     */
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%d,%d,%s,%s,%s,%d,%d,%d,%s,%s,%s,%s", run, size, fractionVacant,
+            fractionRed, happinessThreshold, neighborhoodDistance, seed, steps, reason, fractionHappy, segregation,
+            strategy);
+    }
+
+    /**
+     * @return the result as one JSON object, without a line terminator
+     */
+    public String toJson() {
+        return String.format(Locale.ROOT, "{\"run\":%d,\"size\":%d,\"fractionVacant\":%s,\"fractionRed\":%s,"
+                + "\"happinessThreshold\":%s,\"neighborhoodDistance\":%d,\"seed\":%d,\"steps\":%d,\"reason\":\"%s\","
+                + "\"fractionHappy\":%s,\"segregation\":%s,\"strategy\":\"%s\"}", run, size, fractionVacant,
+            fractionRed, happinessThreshold, neighborhoodDistance, seed, steps, reason, json(fractionHappy),
+            json(segregation), strategy);
+    }
+
+    // NaN (no residents) is not valid JSON
+    private static String json(double value) {
+        return Double.isNaN(value) ? "null" : Double.toString(value);
+    }
+}
@@ -0,0 +1,18 @@
+package erehwon;
+
+/**
+ * how a grid classifies all of its residents at once, for fractionHappy and the unhappy-resident scan of
+ * the steps, when neighbour counts are not maintained. all three engines give identical results, and an
+ * engine that does not apply to a grid falls back to SCALAR
+ */
+public enum ScanEngine {
+    /** every resident's window is checked on its own, as isHappy does */
+    SCALAR,
+    /** 64 squares at a time on row bitmasks; used for neighbourhood distance 1 with clipped windows on the
+     * dense layout, and SCALAR otherwise */
+    BITBOARD,
+    /** SIMD lanes of the incubating Vector API, for any topology and neighbourhood distance up to 127 on
+     * the dense layout; needs the jdk.incubator.vector module (--add-modules jdk.incubator.vector), and
+     * falls back to SCALAR without it */
+    VECTOR
+}
@@ -0,0 +1,54 @@
+package erehwon;
+
+/**
+ * the outcome of RedBlueGrid.simulateUntilStable
+ */
+public class SimulationResult {
+    /**
+     * why a simulation stopped
+     */
+    public enum Reason {
+        /** every resident is happy */
+        ALL_HAPPY,
+        /** a step moved nobody, so no later step can change the grid */
+        NO_MOVES,
+        /** happiness stopped improving for a whole plateau window */
+        PLATEAU,
+        /** the step budget ran out */
+        MAX_STEPS,
+        /** a StepListener stopped the run */
+        STOPPED
+    }
+
+    private final int steps;
+    private final Reason reason;
+    private final double fractionHappy;
+
+    /**
+     * @param steps         number of steps that ran
+     * @param reason        why the simulation stopped
+     * @param fractionHappy fraction of happy residents when it stopped
+     */
+    public SimulationResult(int steps, Reason reason, double fractionHappy) {
+        this.steps = steps;
+        this.reason = reason;
+        this.fractionHappy = fractionHappy;
+    }
+
+    public int steps() {
+        return steps;
+    }
+
+    public Reason reason() {
+        return reason;
+    }
+
+    public double fractionHappy() {
+        return fractionHappy;
+    }
+
+    @Override
+    public String toString() {
+        return reason + " after " + steps + " steps, fractionHappy " + fractionHappy;
+    }
+}
@@ -0,0 +1,184 @@
+package erehwon;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * runs RedBlueGrid.simulateUntilStable off the event dispatch thread. while it runs the grid belongs to the
+ * worker, which copies it into a GridFrame at most framesPerSecond times a second, with the squares the
+ * moves since the previous frame touched. the event dispatch thread only gets the newest frame that
+ * arrived since it last looked, carrying the changes of the frames it skipped. the run can be paused,
+ * resumed and stopped between steps
+ */
+public class SimulationWorker extends SwingWorker<SimulationResult, GridFrame> {
+    private final RedBlueGrid grid;
+    private final int maxSteps;
+    private final long frameNanos;
+    private final Consumer<GridFrame> onFrame;
+    private final Consumer<SimulationResult> onDone;
+    private final Object pauseLock = new Object();
+    // guarded by pauseLock
+    private boolean paused;
+    private volatile boolean stopped;
+    private volatile GridFrame lastFrame;
+    // when the worker last published a frame, and the squares moves touched since, with a count of -1
+    // once there were more than the grid has and redrawing it all is cheaper; only used on the worker thread
+    private long published;
+    private int[] changed = new int[64];
+    private int changedCount;
+
+    /**
+     * @param grid            the grid to simulate; nothing else may touch it until onDone has been called
+     * @param maxSteps        most steps to run
+     * @param framesPerSecond most frames to publish a second; >= 1
+     * @param onFrame         shows a frame; called on the event dispatch thread
+     * @param onDone          told how the run ended, after the last frame has been shown; called on the
+     *                        event dispatch thread
+     */
+    public SimulationWorker(RedBlueGrid grid, int maxSteps, int framesPerSecond,
+                            Consumer<GridFrame> onFrame, Consumer<SimulationResult> onDone) {
+        if (framesPerSecond < 1) {
+            throw new IllegalArgumentException("framesPerSecond must be at least 1");
+        }
+        this.grid = grid;
+        this.maxSteps = maxSteps;
+        this.frameNanos = 1_000_000_000L / framesPerSecond;
+        this.onFrame = onFrame;
+        this.onDone = onDone;
+    }
+
+    @Override
+    protected SimulationResult doInBackground() {
+        published = System.nanoTime() - frameNanos;
+        // note the squares every move touches, passing the moves on to a recorder already attached
+        MoveRecorder previous = grid.moveRecorder();
+        grid.setMoveRecorder(new MoveRecorder() {
+            @Override
+            public void move(long from, long to, byte color) {
+                touched((int) from);
+                touched((int) to);
+                if (previous != null) {
+                    previous.move(from, to, color);
+                }
+            }
+
+            @Override
+            public void endStep() {
+                if (previous != null) {
+                    previous.endStep();
+                }
+            }
+        });
+        SimulationResult result;
+        try {
+            result = grid.simulateUntilStable(maxSteps, RedBlueGrid.DEFAULT_PLATEAU_WINDOW, 0.0, this::afterStep);
+        } finally {
+            grid.setMoveRecorder(previous);
+        }
+        // frames still queued when the run ends are dropped, so the last one shows every square
+        lastFrame = GridFrame.of(grid, result.steps(), result.fractionHappy());
+        return result;
+    }
+
+    private void touched(int square) {
+        if (changedCount < 0) {
+            return;
+        }
+        if (changedCount == changed.length) {
+            if ((long) changedCount >= (long) grid.size() * grid.size()) {
+                changedCount = -1;
+                return;
+            }
+            changed = Arrays.copyOf(changed, changedCount * 2);
+        }
+        changed[changedCount++] = square;
+    }
+
+    private boolean afterStep(int steps, double fractionHappy) {
+        long now = System.nanoTime();
+        if (now - published >= frameNanos) {
+            published = now;
+            // the first frame shows every square, as the grid may have changed since it was last shown
+            int[] since = steps == 1 || changedCount < 0 ? null : Arrays.copyOf(changed, changedCount);
+            changedCount = 0;
+            publish(GridFrame.of(grid, steps, fractionHappy, since));
+        }
+        synchronized (pauseLock) {
+            while (paused && !stopped) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return !stopped;
+    }
+
+    @Override
+    protected void process(List<GridFrame> frames) {
+        // once the run is over, done shows the final frame and anything still queued is stale
+        if (!isDone()) {
+            onFrame.accept(GridFrame.coalesce(frames));
+        }
+    }
+
+    @Override
+    protected void done() {
+        SimulationResult result;
+        try {
+            result = get();
+        } catch (CancellationException e) {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("simulation failed", e.getCause());
+        }
+        onFrame.accept(lastFrame);
+        onDone.accept(result);
+    }
+
+    /**
+     * holds the run after its current step until resume or stop
+     */
+    public void pause() {
+        synchronized (pauseLock) {
+            paused = true;
+        }
+    }
+
+    /**
+     * lets a paused run go on
+     */
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return true if the run is paused
+     */
+    public boolean isPaused() {
+        synchronized (pauseLock) {
+            return paused;
+        }
+    }
+
+    /**
+     * cancels the run, paused or not. unlike cancel(true) this lets the current step finish, so the grid is
+     * never left between two moves, and onDone still gets the result, with reason STOPPED
+     */
+    public void stop() {
+        stopped = true;
+        resume();
+    }
+}
@@ -0,0 +1,51 @@
+package erehwon;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * a Flight Recorder event for every step of an instrumented grid, with the values of its StepStats. the
+ * event's duration is the whole step
+ */
+@Name("erehwon.Step")
+@Label("Grid Step")
+@Category("Erehwon")
+@Description("One step of an instrumented RedBlueGrid")
+@StackTrace(false)
+final class StepEvent extends Event {
+    @Label("Step Method")
+    String method;
+
+    @Label("Grid Size")
+    int size;
+
+    @Label("Classify Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long classifyNanos;
+
+    @Label("Place Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long placeNanos;
+
+    @Label("Unhappy Residents")
+    long unhappy;
+
+    @Label("Vacant Squares")
+    long vacant;
+
+    @Label("Moves")
+    long moves;
+
+    @Label("Failed Probes")
+    long failedProbes;
+
+    @Label("Allocated")
+    @DataAmount(DataAmount.BYTES)
+    long allocatedBytes;
+}
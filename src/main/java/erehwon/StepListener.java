@@ -0,0 +1,16 @@
+package erehwon;
+
+/**
+ * told about every step of RedBlueGrid.simulateUntilStable, on the thread running it, and able to stop the run
+ */
+public interface StepListener {
+
+    /**
+     * a step ended; the grid may be read until this returns
+     *
+     * @param steps         number of steps run so far
+     * @param fractionHappy fraction of happy residents after the step
+     * @return true to go on, false to stop the run before its next step
+     */
+    boolean afterStep(int steps, double fractionHappy);
+}
@@ -0,0 +1,109 @@
+package erehwon;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * measures the steps of an instrumented grid: begin when a step starts, classified once its unhappy
+ * residents and vacant squares are known, failedProbes as placements are turned down, and end when the
+ * step is over. a grid that is not instrumented has no probe, so the step methods only pay for a null check
+ */
+final class StepProbe {
+    // the per-thread allocation counter of HotSpot and compatible JVMs; null when there is none
+    private static final com.sun.management.ThreadMXBean ALLOCATION = allocationCounter();
+
+    private final int size;
+    private StepEvent event;
+    private String method;
+    private long started;
+    private long classified;
+    private long allocatedAtStart;
+    private long unhappy;
+    private long vacant;
+    private long failedProbes;
+
+    /**
+     * @param size length and width of the grid, reported with every event
+     */
+    StepProbe(int size) {
+        this.size = size;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                return counter;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATION == null ? -1 : ALLOCATION.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * a step starts
+     *
+     * @param method name of the public step method running it
+     */
+    void begin(String method) {
+        this.method = method;
+        unhappy = 0;
+        vacant = 0;
+        failedProbes = 0;
+        classified = 0;
+        allocatedAtStart = allocatedBytes();
+        event = new StepEvent();
+        event.begin();
+        started = System.nanoTime();
+    }
+
+    /**
+     * the step has found its unhappy residents and vacant squares
+     */
+    void classified(long unhappy, long vacant) {
+        classified = System.nanoTime();
+        this.unhappy = unhappy;
+        this.vacant = vacant;
+    }
+
+    /**
+     * count vacant squares were tried for a resident that would not have been happy there
+     */
+    void failedProbes(int count) {
+        failedProbes += count;
+    }
+
+    /**
+     * the step is over; commits its event if Flight Recorder is recording it
+     *
+     * @param moves number of residents that moved in the step
+     * @return what the step did and cost
+     */
+    StepStats end(int moves) {
+        long ended = System.nanoTime();
+        long allocated = allocatedAtStart < 0 ? -1 : allocatedBytes() - allocatedAtStart;
+        // a step that never reported its classification spent all of its time classifying
+        long split = classified == 0 ? ended : classified;
+        StepStats stats = new StepStats(1, split - started, ended - split, unhappy, vacant, moves, failedProbes,
+            allocated);
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.size = size;
+            event.classifyNanos = stats.classifyNanos();
+            event.placeNanos = stats.placeNanos();
+            event.unhappy = unhappy;
+            event.vacant = vacant;
+            event.moves = moves;
+            event.failedProbes = failedProbes;
+            event.allocatedBytes = allocated;
+            event.commit();
+        }
+        event = null;
+        return stats;
+    }
+}
@@ -0,0 +1,105 @@
+package erehwon;
+
+/**
+ * what one or more steps of an instrumented RedBlueGrid did and what they cost; see
+ * RedBlueGrid.setInstrumented. for several steps every value is the sum over those steps
+ */
+public final class StepStats {
+    /** no steps */
+    static final StepStats NONE = new StepStats(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final long steps;
+    private final long classifyNanos;
+    private final long placeNanos;
+    private final long unhappy;
+    private final long vacant;
+    private final long moves;
+    private final long failedProbes;
+    private final long allocatedBytes;
+
+    StepStats(long steps, long classifyNanos, long placeNanos, long unhappy, long vacant, long moves,
+              long failedProbes, long allocatedBytes) {
+        this.steps = steps;
+        this.classifyNanos = classifyNanos;
+        this.placeNanos = placeNanos;
+        this.unhappy = unhappy;
+        this.vacant = vacant;
+        this.moves = moves;
+        this.failedProbes = failedProbes;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * @return the sums of these stats and other's; allocated bytes stay -1 if either is -1
+     */
+    StepStats plus(StepStats other) {
+        long allocated = allocatedBytes < 0 || other.allocatedBytes < 0 ? -1 : allocatedBytes + other.allocatedBytes;
+        return new StepStats(steps + other.steps, classifyNanos + other.classifyNanos,
+            placeNanos + other.placeNanos, unhappy + other.unhappy, vacant + other.vacant, moves + other.moves,
+            failedProbes + other.failedProbes, allocated);
+    }
+
+    /**
+     * @return number of steps these stats cover
+     */
+    public long steps() {
+        return steps;
+    }
+
+    /**
+     * @return nanoseconds spent finding the unhappy residents and vacant squares at the start of each step
+     */
+    public long classifyNanos() {
+        return classifyNanos;
+    }
+
+    /**
+     * @return nanoseconds spent after that, choosing squares and moving residents
+     */
+    public long placeNanos() {
+        return placeNanos;
+    }
+
+    /**
+     * @return number of unhappy residents found at the start of each step
+     */
+    public long unhappy() {
+        return unhappy;
+    }
+
+    /**
+     * @return number of vacant squares found at the start of each step
+     */
+    public long vacant() {
+        return vacant;
+    }
+
+    /**
+     * @return number of residents that moved
+     */
+    public long moves() {
+        return moves;
+    }
+
+    /**
+     * @return number of vacant squares oneGroupStep tried for a resident that would not have been happy there
+     */
+    public long failedProbes() {
+        return failedProbes;
+    }
+
+    /**
+     * @return bytes allocated on the thread running the steps (not by worker threads of simulateParallel);
+     * -1 when the JVM cannot tell
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return steps + " steps: classify " + classifyNanos / 1000 + " us, place " + placeNanos / 1000
+            + " us, unhappy " + unhappy + ", vacant " + vacant + ", moves " + moves + ", failed probes "
+            + failedProbes + ", allocated " + allocatedBytes + " bytes";
+    }
+}
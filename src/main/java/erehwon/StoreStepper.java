@@ -0,0 +1,174 @@
+package erehwon;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * fractionHappy and the steps of a grid whose cells live in a CellStore. scans visit residents tile by
+ * tile and skip tiles the store reports as vacant. vacant squares are never listed: there can be billions
+ * of them, so movers draw random squares until they hit a vacant one. squares are addressed by
+ * row * size + col as a long, because a store may hold more than Integer.MAX_VALUE of them
+ */
+class StoreStepper {
+    // random vacant squares tried per unhappy resident in oneGroupStep before it moves at random; the
+    // number is given in the javadoc of RedBlueGrid.oneGroupStep
+    static final int GROUP_PROBES = 32;
+
+    private final RedBlueGrid grid;
+    private final CellStore store;
+    private final int size;
+    private final long squares;
+    // unhappy residents found by the last scan, reused between steps
+    private long[] unhappy = new long[16];
+    private int unhappyCount;
+
+    /**
+     * @param grid  the grid to step
+     * @param store the cells of grid
+     */
+    StoreStepper(RedBlueGrid grid, CellStore store) {
+        this.grid = grid;
+        this.store = store;
+        this.size = store.size();
+        this.squares = (long) size * size;
+    }
+
+    /**
+     * @return fraction of residents that are happy; NaN when there are none
+     */
+    double fractionHappy() {
+        long happy = scan(false);
+        return (double) happy / (double) store.residents();
+    }
+
+    /**
+     * oneTimeStep: min(unhappy, vacant) random unhappy residents each move to a random vacant square.
+     * unlike the dense layout, a square vacated earlier in the step may be drawn again
+     *
+     * @return number of residents that moved
+     */
+    int oneTimeStep() {
+        scan(true);
+        grid.classified(unhappyCount, squares - store.residents());
+        int moves = (int) Math.min(unhappyCount, squares - store.residents());
+        RandomGenerator rng = grid.rng();
+        for (int i = 0; i < moves; i++) {
+            swap(i, i + rng.nextInt(unhappyCount - i));
+            move(unhappy[i], randomVacant(rng));
+        }
+        return moves;
+    }
+
+    /**
+     * oneGroupStep: each unhappy resident tries up to GROUP_PROBES random vacant squares and moves to the
+     * first one where it would be happy; the residents left over then move to random vacant squares
+     *
+     * @return number of residents that moved
+     */
+    int oneGroupStep() {
+        scan(true);
+        grid.classified(unhappyCount, squares - store.residents());
+        if (store.residents() == squares) {
+            return 0;
+        }
+        RandomGenerator rng = grid.rng();
+        int moves = 0;
+        int left = 0;
+        for (int i = 0; i < unhappyCount; i++) {
+            long from = unhappy[i];
+            byte color = store.get((int) (from / size), (int) (from % size));
+            boolean placed = false;
+            int probe = 0;
+            for (; probe < GROUP_PROBES && !placed; probe++) {
+                long to = randomVacant(rng);
+                int row = (int) (to / size);
+                int col = (int) (to % size);
+                // tried with the mover still at home, as on the dense layout
+                store.set(row, col, color);
+                if (grid.isHappy(row, col)) {
+                    grid.recordMove(from, to, color);
+                    store.set((int) (from / size), (int) (from % size), RedBlueGrid.VACANT);
+                    placed = true;
+                } else {
+                    store.set(row, col, RedBlueGrid.VACANT);
+                }
+            }
+            grid.failedProbes(placed ? probe - 1 : probe);
+            if (placed) {
+                moves++;
+            } else {
+                unhappy[left++] = from;
+            }
+        }
+        int randomMoves = (int) Math.min(left, squares - store.residents());
+        for (int i = 0; i < randomMoves; i++) {
+            swap(i, i + rng.nextInt(left - i));
+            move(unhappy[i], randomVacant(rng));
+        }
+        return moves + randomMoves;
+    }
+
+    /**
+     * visits every resident, skipping vacant tiles
+     *
+     * @param collect true to record the unhappy residents in unhappy
+     * @return number of happy residents
+     */
+    private long scan(boolean collect) {
+        int tile = store.tileSize();
+        int tiles = (size + tile - 1) / tile;
+        long happy = 0;
+        unhappyCount = 0;
+        for (int tileRow = 0; tileRow < tiles; tileRow++) {
+            for (int tileCol = 0; tileCol < tiles; tileCol++) {
+                if (store.isTileVacant(tileRow, tileCol)) {
+                    continue;
+                }
+                int lastRow = Math.min((tileRow + 1) * tile, size);
+                int lastCol = Math.min((tileCol + 1) * tile, size);
+                for (int row = tileRow * tile; row < lastRow; row++) {
+                    for (int col = tileCol * tile; col < lastCol; col++) {
+                        if (store.get(row, col) == RedBlueGrid.VACANT) {
+                            continue;
+                        }
+                        if (grid.isHappy(row, col)) {
+                            happy++;
+                        } else if (collect) {
+                            if (unhappyCount == unhappy.length) {
+                                unhappy = Arrays.copyOf(unhappy, unhappy.length * 2);
+                            }
+                            unhappy[unhappyCount++] = (long) row * size + col;
+                        }
+                    }
+                }
+            }
+        }
+        return happy;
+    }
+
+    /**
+     * @return a uniformly random vacant square; there must be one
+     */
+    private long randomVacant(RandomGenerator rng) {
+        while (true) {
+            long square = rng.nextLong(squares);
+            if (store.get((int) (square / size), (int) (square % size)) == RedBlueGrid.VACANT) {
+                return square;
+            }
+        }
+    }
+
+    private void move(long from, long to) {
+        int fromRow = (int) (from / size);
+        int fromCol = (int) (from % size);
+        grid.recordMove(from, to, store.get(fromRow, fromCol));
+        store.set((int) (to / size), (int) (to % size), store.get(fromRow, fromCol));
+        store.set(fromRow, fromCol, RedBlueGrid.VACANT);
+    }
+
+    private void swap(int i, int j) {
+        long tmp = unhappy[i];
+        unhappy[i] = unhappy[j];
+        unhappy[j] = tmp;
+    }
+}
@@ -0,0 +1,79 @@
+package erehwon;
+
+/**
+ * per-colour 2D prefix sums (integral images) of a grid. once built, the number of red or blue
+ * residents in any clipped neighbourhood window comes out of four lookups, whatever the distance
+ */
+class SummedAreaTable {
+    private final int size;
+    private final int stride;
+    // reds[r * stride + c] is the number of red residents in rows [0, r) and columns [0, c)
+    private final int[] reds;
+    private final int[] blues;
+
+    /**
+     * allocates an empty table for a grid of the given size; call build before using it
+     *
+     * @param size length and width of the grid
+     */
+    SummedAreaTable(int size) {
+        this.size = size;
+        this.stride = size + 1;
+        this.reds = new int[stride * stride];
+        this.blues = new int[stride * stride];
+    }
+
+    /**
+     * @return length and width of the grid this table was allocated for
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * recomputes both prefix sums from the current cells in one pass
+     *
+     * @param cells row-major cell values of a grid of this table's size
+     */
+    void build(byte[] cells) {
+        for (int row = 0; row < size; row++) {
+            int red = 0;
+            int blue = 0;
+            int above = row * stride;
+            int here = above + stride;
+            for (int col = 0; col < size; col++) {
+                byte cell = cells[row * size + col];
+                red += cell == RedBlueGrid.RED ? 1 : 0;
+                blue += cell == RedBlueGrid.BLUE ? 1 : 0;
+                reds[here + col + 1] = reds[above + col + 1] + red;
+                blues[here + col + 1] = blues[above + col + 1] + blue;
+            }
+        }
+    }
+
+    /**
+     * same rule as RedBlueGrid.isHappy, answered from the prefix sums
+     *
+     * @param cells     the cells this table was last built from
+     * @param row       row of an occupied square
+     * @param col       column of an occupied square
+     * @param distance  neighbourhood distance
+     * @param threshold happiness threshold
+     * @return true if the resident at row, col is happy
+     */
+    boolean isHappy(byte[] cells, int row, int col, int distance, double threshold) {
+        byte cell = cells[row * size + col];
+        if (cell == RedBlueGrid.VACANT) {
+            return false;
+        }
+        int top = Math.max(row - distance, 0);
+        int bottom = Math.min(row + distance, size - 1) + 1;
+        int left = Math.max(col - distance, 0);
+        int right = Math.min(col + distance, size - 1) + 1;
+        int[] sums = cell == RedBlueGrid.RED ? reds : blues;
+        int same = sums[bottom * stride + right] - sums[top * stride + right]
+            - sums[bottom * stride + left] + sums[top * stride + left] - 1;
+        int total = (bottom - top) * (right - left) - 1;
+        return (double) same / (double) total >= threshold;
+    }
+}
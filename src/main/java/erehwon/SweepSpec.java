@@ -0,0 +1,193 @@
+package erehwon;
+
+import java.util.Arrays;
+
+/**
+ * a parameter sweep over Erehwon grids: every combination of move strategy, vacancy fraction, red
+ * fraction, happiness threshold and neighbourhood distance, each run with several seeds. runs are
+ * numbered 0 .. runCount() - 1, with the seed varying fastest, then distance, threshold, red fraction,
+ * vacancy and strategy
+ */
+public class SweepSpec {
+    private final int size;
+    private final double[] fractionsVacant;
+    private final double[] fractionsRed;
+    private final double[] happinessThresholds;
+    private final int[] neighborhoodDistances;
+    private final int seedsPerPoint;
+    private final long baseSeed;
+    private final int maxSteps;
+    // MoveStrategies.parse specs, and the CPU time each run may use in milliseconds, 0 for no limit
+    private final String[] strategies;
+    private final long cpuBudgetMillis;
+
+    /**
+     * @param size                  length and width of every grid
+     * @param fractionsVacant       fractions of vacant squares to try, each in [0, 1]
+     * @param fractionsRed          fractions of residents that are red to try, each in [0, 1]
+     * @param happinessThresholds   happiness thresholds to try
+     * @param neighborhoodDistances neighbourhood distances to try, each >= 1
+     * @param seedsPerPoint         number of independent runs per parameter combination; >= 1
+     * @param baseSeed              seed every run's seed is derived from
+     * @param maxSteps              most steps a run may take before it is reported as not converged
+     */
+    public SweepSpec(int size,
+                     double[] fractionsVacant,
+                     double[] fractionsRed,
+                     double[] happinessThresholds,
+                     int[] neighborhoodDistances,
+                     int seedsPerPoint,
+                     long baseSeed,
+                     int maxSteps) {
+        this(size, fractionsVacant, fractionsRed, happinessThresholds, neighborhoodDistances, seedsPerPoint,
+            baseSeed, maxSteps, new String[]{"mixed"}, 0);
+    }
+
+    /**
+     * a sweep that also compares move strategies, optionally giving every run the same CPU budget
+     *
+     * @param size                  length and width of every grid
+     * @param fractionsVacant       fractions of vacant squares to try, each in [0, 1]
+     * @param fractionsRed          fractions of residents that are red to try, each in [0, 1]
+     * @param happinessThresholds   happiness thresholds to try
+     * @param neighborhoodDistances neighbourhood distances to try, each >= 1
+     * @param seedsPerPoint         number of independent runs per parameter combination; >= 1
+     * @param baseSeed              seed every run's seed is derived from
+     * @param maxSteps              most steps a run may take before it is reported as not converged
+     * @param strategies            move strategies to try, as accepted by MoveStrategies.parse
+     * @param cpuBudgetMillis       CPU time a run may use before it is stopped, in milliseconds; 0 for no limit
+     */
+    public SweepSpec(int size,
+                     double[] fractionsVacant,
+                     double[] fractionsRed,
+                     double[] happinessThresholds,
+                     int[] neighborhoodDistances,
+                     int seedsPerPoint,
+                     long baseSeed,
+                     int maxSteps,
+                     String[] strategies,
+                     long cpuBudgetMillis) {
+        if (size < 1 || seedsPerPoint < 1 || maxSteps < 0 || cpuBudgetMillis < 0) {
+            throw new IllegalArgumentException("size and seedsPerPoint must be positive, maxSteps and cpuBudgetMillis non-negative");
+        }
+        for (String strategy : strategies) {
+            MoveStrategies.parse(strategy);
+        }
+        this.size = size;
+        this.fractionsVacant = fractionsVacant.clone();
+        this.fractionsRed = fractionsRed.clone();
+        this.happinessThresholds = happinessThresholds.clone();
+        this.neighborhoodDistances = neighborhoodDistances.clone();
+        this.seedsPerPoint = seedsPerPoint;
+        this.baseSeed = baseSeed;
+        this.maxSteps = maxSteps;
+        this.strategies = strategies.clone();
+        this.cpuBudgetMillis = cpuBudgetMillis;
+    }
+
+    /**
+     * parses a spec from key=value arguments, lists separated by commas, e.g.
+     * size=100 vacant=0.1,0.2 red=0.5 threshold=0.3,0.5,0.7 distance=1,2 seeds=20 seed=1 steps=500
+     * strategy=random,corner:1+group:5 budget=2000. keys that are left out take the value shown in that
+     * example, except vacant (0.1), threshold (0.3), strategy (mixed) and budget (0, no limit)
+     *
+     * @param args the arguments; unknown keys are rejected
+     * @return the parsed spec
+     */
+    public static SweepSpec parse(String[] args) {
+        int size = 100;
+        double[] vacant = {0.1};
+        double[] red = {0.5};
+        double[] threshold = {0.3};
+        int[] distance = {1};
+        int seeds = 20;
+        long seed = 1;
+        int steps = 500;
+        String[] strategy = {"mixed"};
+        long budget = 0;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected key=value but got " + arg);
+            }
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(0, eq)) {
+                case "size" -> size = Integer.parseInt(value);
+                case "vacant" -> vacant = parseDoubles(value);
+                case "red" -> red = parseDoubles(value);
+                case "threshold" -> threshold = parseDoubles(value);
+                case "distance" -> distance = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                case "seeds" -> seeds = Integer.parseInt(value);
+                case "seed" -> seed = Long.parseLong(value);
+                case "steps" -> steps = Integer.parseInt(value);
+                case "strategy" -> strategy = value.split(",");
+                case "budget" -> budget = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("unknown sweep key " + arg.substring(0, eq));
+            }
+        }
+        return new SweepSpec(size, vacant, red, threshold, distance, seeds, seed, steps, strategy, budget);
+    }
+
+    private static double[] parseDoubles(String list) {
+        return Arrays.stream(list.split(",")).mapToDouble(Double::parseDouble).toArray();
+    }
+
+    /**
+     * @return total number of runs in the sweep
+     */
+    public int runCount() {
+        return strategies.length * fractionsVacant.length * fractionsRed.length * happinessThresholds.length
+            * neighborhoodDistances.length * seedsPerPoint;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @return CPU time a run may use before it is stopped, in milliseconds; 0 for no limit
+     */
+    public long cpuBudgetMillis() {
+        return cpuBudgetMillis;
+    }
+
+    /**
+     * @return the move strategy of the given run, as accepted by MoveStrategies.parse
+     */
+    public String strategy(int run) {
+        return strategies[run / (seedsPerPoint * neighborhoodDistances.length * happinessThresholds.length
+            * fractionsRed.length * fractionsVacant.length)];
+    }
+
+    public double fractionVacant(int run) {
+        return fractionsVacant[run / (seedsPerPoint * neighborhoodDistances.length * happinessThresholds.length * fractionsRed.length)
+            % fractionsVacant.length];
+    }
+
+    public double fractionRed(int run) {
+        return fractionsRed[run / (seedsPerPoint * neighborhoodDistances.length * happinessThresholds.length) % fractionsRed.length];
+    }
+
+    public double happinessThreshold(int run) {
+        return happinessThresholds[run / (seedsPerPoint * neighborhoodDistances.length) % happinessThresholds.length];
+    }
+
+    public int neighborhoodDistance(int run) {
+        return neighborhoodDistances[run / seedsPerPoint % neighborhoodDistances.length];
+    }
+
+    /**
+     * @return the seed of the given run; distinct runs get well-mixed, distinct seeds
+     */
+    public long seed(int run) {
+        // SplitMix64 finaliser over baseSeed advanced by the golden-ratio increment
+        long z = baseSeed + (run + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,111 @@
+package erehwon;
+
+import java.util.Arrays;
+
+/**
+ * a CellStore of 64 x 64 tiles with two bits per square, allocated when the first resident moves in and
+ * dropped again when the last one moves out. an all-vacant world therefore costs one reference and one int
+ * per tile, and an occupied tile a kilobyte, a quarter of the dense layout
+ */
+class TiledCellStore implements CellStore {
+    static final int TILE_BITS = 6;
+    static final int TILE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE - 1;
+    // two-bit cells per long, and the shift that turns a cell offset into a word offset
+    private static final int CELLS_PER_WORD = 32;
+    private static final int WORD_BITS = 5;
+
+    private final int size;
+    private final int tilesPerSide;
+    // tiles[tileRow * tilesPerSide + tileCol], row-major inside a tile; null when the tile is all vacant
+    private final long[][] tiles;
+    private final int[] tileResidents;
+    private long residents;
+
+    /**
+     * creates an all-vacant store
+     *
+     * @param size length and width of the grid; >= 1
+     */
+    TiledCellStore(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.size = size;
+        this.tilesPerSide = (size + TILE - 1) >>> TILE_BITS;
+        this.tiles = new long[Math.multiplyExact(tilesPerSide, tilesPerSide)][];
+        this.tileResidents = new int[tiles.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public byte get(int row, int col) {
+        long[] tile = tiles[(row >>> TILE_BITS) * tilesPerSide + (col >>> TILE_BITS)];
+        if (tile == null) {
+            return RedBlueGrid.VACANT;
+        }
+        int offset = ((row & TILE_MASK) << TILE_BITS) | (col & TILE_MASK);
+        return (byte) ((tile[offset >>> WORD_BITS] >>> ((offset & (CELLS_PER_WORD - 1)) << 1)) & 3);
+    }
+
+    @Override
+    public void set(int row, int col, byte cell) {
+        int t = (row >>> TILE_BITS) * tilesPerSide + (col >>> TILE_BITS);
+        long[] tile = tiles[t];
+        if (tile == null) {
+            if (cell == RedBlueGrid.VACANT) {
+                return;
+            }
+            tile = new long[TILE * TILE / CELLS_PER_WORD];
+            tiles[t] = tile;
+        }
+        int offset = ((row & TILE_MASK) << TILE_BITS) | (col & TILE_MASK);
+        int word = offset >>> WORD_BITS;
+        int shift = (offset & (CELLS_PER_WORD - 1)) << 1;
+        int old = (int) ((tile[word] >>> shift) & 3);
+        tile[word] = (tile[word] & ~(3L << shift)) | ((long) cell << shift);
+        int delta = (cell != RedBlueGrid.VACANT ? 1 : 0) - (old != RedBlueGrid.VACANT ? 1 : 0);
+        tileResidents[t] += delta;
+        residents += delta;
+        if (tileResidents[t] == 0) {
+            tiles[t] = null;
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(tiles, null);
+        Arrays.fill(tileResidents, 0);
+        residents = 0;
+    }
+
+    @Override
+    public long residents() {
+        return residents;
+    }
+
+    @Override
+    public int tileSize() {
+        return TILE;
+    }
+
+    @Override
+    public boolean isTileVacant(int tileRow, int tileCol) {
+        return tiles[tileRow * tilesPerSide + tileCol] == null;
+    }
+
+    /**
+     * @return number of tiles currently allocated
+     */
+    int allocatedTiles() {
+        int allocated = 0;
+        for (long[] tile : tiles) {
+            allocated += tile == null ? 0 : 1;
+        }
+        return allocated;
+    }
+}
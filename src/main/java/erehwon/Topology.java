@@ -0,0 +1,13 @@
+package erehwon;
+
+/**
+ * what happens to a neighbourhood window at the edge of the grid
+ */
+public enum Topology {
+    /** the window is cut off at the edges, so edge squares have fewer neighbours */
+    CLIPPED,
+    /** the grid wraps around in both directions, so every square has a full window */
+    TORUS,
+    /** the window is mirrored back into the grid at the edges (the edge itself is not repeated) */
+    REFLECTIVE
+}
@@ -0,0 +1,217 @@
+package erehwon;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * the happiness rule of RedBlueGrid.isHappy for every square at once, on SIMD lanes through the incubating
+ * Vector API. a square counts as 1 when red and 1 << 16 when blue, so one int carries both colour counts
+ * and every add works on the two at once. the grid is swept row by row, keeping for every column the sums
+ * over the rows of the current window; moving to the next row adds the row entering the window and takes
+ * out the row leaving it. the window sums of a row are then 2d + 1 vector adds of the column sums, shifted
+ * one column further each time, and a vector compare against the least count that makes a resident happy.
+ *
+ * only load this class when the jdk.incubator.vector module is present
+ */
+final class VectorKernel {
+    /** largest distance whose window counts fit in 16 bits */
+    static final int MAX_DISTANCE = 127;
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int BLUE_ONE = 1 << 16;
+
+    private final Neighborhood neighborhood;
+    private final int size;
+    private final int distance;
+    // padColumn[p] is the grid column at position p of a row padded by distance on both sides, -1 if none
+    private final int[] padColumn;
+    // column sums over the window rows, packed, in padded positions
+    private final int[] columns;
+    // the squares of the current row, packed
+    private final int[] own;
+    // least count of the window, every entry on the own square included, that makes a resident of each
+    // column happy, for rows whose window has neededSpan entries of which neededSelf fall on the row itself
+    private final int[] needed;
+    private int neededSpan = -1;
+    private int neededSelf = -1;
+    // neededByTotal[total] for the current threshold, computed on first use; 0 when not yet known
+    private final int[] neededByTotal;
+    private double threshold = Double.NaN;
+    private int vacantCount;
+
+    /**
+     * @param neighborhood the windows of the grid; distance at most MAX_DISTANCE
+     */
+    VectorKernel(Neighborhood neighborhood) {
+        this.neighborhood = neighborhood;
+        this.size = neighborhood.size();
+        this.distance = neighborhood.distance();
+        int padded = size + 2 * distance;
+        padColumn = new int[padded];
+        for (int p = 0; p < padded; p++) {
+            padColumn[p] = neighborhood.cover(p - distance);
+        }
+        columns = new int[padded];
+        own = new int[size];
+        needed = new int[size];
+        int width = 2 * distance + 1;
+        neededByTotal = new int[width * width];
+    }
+
+    /**
+     * @return the windows this kernel was built for
+     */
+    Neighborhood neighborhood() {
+        return neighborhood;
+    }
+
+    /**
+     * counts the unhappy residents of the cells and, when buffers are given, writes the index of every unhappy
+     * resident and every vacant square in row-major order
+     *
+     * @param cells     row-major cell values of a grid of this kernel's size
+     * @param threshold happiness threshold
+     * @param unhappy   receives the indices of unhappy residents; null to only count
+     * @param vacant    receives the indices of vacant squares; null to only count
+     * @return the number of unhappy residents; vacantCount() then gives the number of vacant squares
+     */
+    int classify(byte[] cells, double threshold, int[] unhappy, int[] vacant) {
+        if (Double.compare(threshold, this.threshold) != 0) {
+            this.threshold = threshold;
+            Arrays.fill(neededByTotal, 0);
+            neededSpan = -1;
+        }
+        Arrays.fill(columns, 0);
+        for (int k = -distance; k <= distance; k++) {
+            addRow(cells, neighborhood.cover(k), 1);
+        }
+        int unhappyCount = 0;
+        int vacantTotal = 0;
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(size);
+        for (int row = 0; row < size; row++) {
+            if (row > 0) {
+                addRow(cells, neighborhood.cover(row - 1 - distance), -1);
+                addRow(cells, neighborhood.cover(row + distance), 1);
+            }
+            prepareNeeded(neighborhood.span(row), neighborhood.self(row));
+            int base = row * size;
+            for (int col = 0; col < size; col++) {
+                own[col] = pack(cells[base + col]);
+            }
+
+            int col = 0;
+            for (; col < bound; col += lanes) {
+                IntVector sums = IntVector.fromArray(SPECIES, columns, col);
+                for (int k = 1; k <= 2 * distance; k++) {
+                    sums = sums.add(IntVector.fromArray(SPECIES, columns, col + k));
+                }
+                IntVector square = IntVector.fromArray(SPECIES, own, col);
+                VectorMask<Integer> isVacant = square.compare(VectorOperators.EQ, 0);
+                VectorMask<Integer> isBlue = square.compare(VectorOperators.EQ, BLUE_ONE);
+                IntVector same = sums.and(0xFFFF).blend(sums.lanewise(VectorOperators.LSHR, 16), isBlue);
+                VectorMask<Integer> isUnhappy = same.compare(VectorOperators.LT, IntVector.fromArray(SPECIES, needed, col))
+                    .andNot(isVacant);
+                if (unhappy == null) {
+                    unhappyCount += isUnhappy.trueCount();
+                    vacantTotal += isVacant.trueCount();
+                    continue;
+                }
+                int first = base + col;
+                for (long bits = isUnhappy.toLong(); bits != 0; bits &= bits - 1) {
+                    unhappy[unhappyCount++] = first + Long.numberOfTrailingZeros(bits);
+                }
+                for (long bits = isVacant.toLong(); bits != 0; bits &= bits - 1) {
+                    vacant[vacantTotal++] = first + Long.numberOfTrailingZeros(bits);
+                }
+            }
+            for (; col < size; col++) {
+                int sums = 0;
+                for (int k = 0; k <= 2 * distance; k++) {
+                    sums += columns[col + k];
+                }
+                if (own[col] == 0) {
+                    if (vacant != null) {
+                        vacant[vacantTotal] = base + col;
+                    }
+                    vacantTotal++;
+                } else if ((own[col] == BLUE_ONE ? sums >>> 16 : sums & 0xFFFF) < needed[col]) {
+                    if (unhappy != null) {
+                        unhappy[unhappyCount] = base + col;
+                    }
+                    unhappyCount++;
+                }
+            }
+        }
+        vacantCount = vacantTotal;
+        return unhappyCount;
+    }
+
+    /**
+     * @return the number of vacant squares found by the last classify
+     */
+    int vacantCount() {
+        return vacantCount;
+    }
+
+    private static int pack(byte cell) {
+        return (cell & 1) | (cell & 2) << 15;
+    }
+
+    /**
+     * adds (sign 1) or takes out (sign -1) a grid row, or nothing for row -1, from the column sums
+     */
+    private void addRow(byte[] cells, int row, int sign) {
+        if (row < 0) {
+            return;
+        }
+        int base = row * size;
+        for (int col = 0; col < size; col++) {
+            columns[col + distance] += sign * pack(cells[base + col]);
+        }
+        for (int p = 0; p < distance; p++) {
+            if (padColumn[p] >= 0) {
+                columns[p] += sign * pack(cells[base + padColumn[p]]);
+            }
+            int right = size + distance + p;
+            if (padColumn[right] >= 0) {
+                columns[right] += sign * pack(cells[base + padColumn[right]]);
+            }
+        }
+    }
+
+    /**
+     * fills needed for rows whose window covers rowSpan rows, rowSelf of them the row itself
+     */
+    private void prepareNeeded(int rowSpan, int rowSelf) {
+        if (rowSpan == neededSpan && rowSelf == neededSelf) {
+            return;
+        }
+        neededSpan = rowSpan;
+        neededSelf = rowSelf;
+        for (int col = 0; col < size; col++) {
+            // the window's entries on the resident's own square are not neighbours
+            int self = rowSelf * neighborhood.self(col);
+            int total = rowSpan * neighborhood.span(col) - self;
+            if (neededByTotal[total] == 0) {
+                neededByTotal[total] = neededCount(total);
+            }
+            needed[col] = neededByTotal[total] - 1 + self;
+        }
+    }
+
+    /**
+     * @return one more than the least number of same-coloured neighbours out of total that makes a resident
+     * happy, by the comparison isHappy uses; total + 2 when no number does
+     */
+    private int neededCount(int total) {
+        int same = 0;
+        while (same <= total && !((double) same / (double) total >= threshold)) {
+            same++;
+        }
+        return same + 1;
+    }
+}
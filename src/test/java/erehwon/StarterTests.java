@@ -1,14 +1,33 @@
 package erehwon;
 import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGeneratorFactory;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 public class StarterTests {
     @Test
     public void testCorrectCreation() {
         RedBlueGrid rbGrid = new RedBlueGrid(10, 1, 0.3, 0.4, 0.35);
-        // complete the test by verifying that the grid has the correct number
-        // of vacant, red, and blue cells
+        int[] counts = new int[3];
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                counts[rbGrid.getCell(i, j)]++;
+            }
+        }
+        assertEquals(30, counts[RedBlueGrid.VACANT]);
+        assertEquals(28, counts[RedBlueGrid.RED]);
+        assertEquals(42, counts[RedBlueGrid.BLUE]);
+        assertThrows(IllegalArgumentException.class, () -> new RedBlueGrid(10, 1, 30, 40, 0.35));
     }
     //@Test
     public void testSetColor() {
@@ -18,13 +37,13 @@ public class StarterTests {
     }
     @Test
     public void simpleTest(){
-        RedBlueGrid rbGrid = new RedBlueGrid(5,1,0.10,0.5,0.25);
+        RedBlueGrid rbGrid = new RedBlueGrid(5,1,0.10,0.5,0.25,1L);
         rbGrid.simulate(20);
         assertEquals(rbGrid.fractionHappy(), 1.0);
     }
     @Test
     public void shiftColorTest(){
-        RedBlueGrid rbGrid = new RedBlueGrid(5,1,0.1,5,0.25);
+        RedBlueGrid rbGrid = new RedBlueGrid(5,1,0.1,0.05,0.25);
         rbGrid.setColor(1,1, Color.WHITE);
         rbGrid.shiftColor(1,1);
         assertEquals(rbGrid.getColor(1,1), Color.RED);
@@ -98,6 +117,19 @@ public class StarterTests {
         assertEquals(rbGrid.getColor(4,-1), null);
     }
 
+    @Test
+    public void getCellTest(){
+        RedBlueGrid rbGrid = new RedBlueGrid(5,1,0.5,0.5,0.25);
+        rbGrid.setColor(2,3,Color.RED);
+        rbGrid.setColor(3,2,Color.BLUE);
+        rbGrid.setColor(0,0,Color.WHITE);
+        assertEquals(rbGrid.getCell(2,3), RedBlueGrid.RED);
+        assertEquals(rbGrid.getCell(3,2), RedBlueGrid.BLUE);
+        assertEquals(rbGrid.getCell(0,0), RedBlueGrid.VACANT);
+        assertEquals(rbGrid.getCell(5,0), -1);
+        assertEquals(rbGrid.getCell(0,-1), -1);
+    }
+
     @Test
     public void efficientTimeStepTest(){
 
@@ -147,4 +179,786 @@ public class StarterTests {
         rbGrid.simulate(40);
         assertEquals(rbGrid.fractionHappy(),0.95,0.06);
     }
+
+    @Test
+    public void incrementalMatchesScanTest(){
+        RedBlueGrid scan = new RedBlueGrid(12,2,0.2,0.5,0.4);
+        RedBlueGrid incremental = new RedBlueGrid(12,2,0.2,0.5,0.4);
+        scan.reset(0.2,0.5,0.4);
+        incremental.setIncremental(true);
+        for (int step = 0; step < 3; step++) {
+            for (int i = 0; i < 12; i++) {
+                for (int j = 0; j < 12; j++) {
+                    incremental.setColor(i, j, scan.getColor(i, j));
+                }
+            }
+            for (int i = 0; i < 12; i++) {
+                for (int j = 0; j < 12; j++) {
+                    if (scan.getCell(i, j) != RedBlueGrid.VACANT) {
+                        assertEquals(scan.isHappy(i, j), incremental.isHappy(i, j));
+                    }
+                }
+            }
+            assertEquals(scan.fractionHappy(), incremental.fractionHappy());
+            scan.oneTimeStep();
+            incremental.shiftColor(step, step);
+        }
+        assertTrue(incremental.isIncremental());
+        incremental.setIncremental(false);
+        assertFalse(incremental.isIncremental());
+    }
+
+    @Test
+    public void topologyTest(){
+        RedBlueGrid rbGrid = new RedBlueGrid(5,1,0,0,0.3);
+        rbGrid.reset(1.0,0.5,0.3);
+        rbGrid.setColor(0, 0, Color.RED);
+        rbGrid.setColor(4, 4, Color.RED);
+        rbGrid.setColor(0, 4, Color.RED);
+        rbGrid.setColor(1, 1, Color.BLUE);
+        assertEquals(Topology.CLIPPED, rbGrid.getTopology());
+        assertFalse(rbGrid.isHappy(0, 0));
+        rbGrid.setTopology(Topology.TORUS);
+        // (0, 4) and (4, 4) wrap around into the window of (0, 0): 2 of 8
+        assertFalse(rbGrid.isHappy(0, 0));
+        rbGrid.setColor(4, 0, Color.RED);
+        assertTrue(rbGrid.isHappy(0, 0));
+        rbGrid.setTopology(Topology.REFLECTIVE);
+        // row -1 mirrors row 1 and column -1 mirrors column 1, so (1, 1) is seen four times: 0 of 8
+        assertFalse(rbGrid.isHappy(0, 0));
+        assertFalse(rbGrid.isHappy(2, 2));
+    }
+
+    @Test
+    public void incrementalTopologyMatchesScanTest(){
+        for (Topology topology : new Topology[]{Topology.TORUS, Topology.REFLECTIVE}) {
+            for (int size : new int[]{4, 9}) {
+                RedBlueGrid scan = new RedBlueGrid(size,3,0,0,0.45,7);
+                RedBlueGrid incremental = new RedBlueGrid(size,3,0,0,0.45,7);
+                scan.reset(0.25,0.5,0.45,11);
+                incremental.reset(0.25,0.5,0.45,11);
+                scan.setTopology(topology);
+                incremental.setIncremental(true);
+                incremental.setTopology(topology);
+                for (int step = 0; step < 4; step++) {
+                    for (int i = 0; i < size; i++) {
+                        for (int j = 0; j < size; j++) {
+                            assertEquals(scan.isHappy(i, j), incremental.isHappy(i, j));
+                        }
+                    }
+                    assertEquals(scan.fractionHappy(), incremental.fractionHappy(), 1e-12);
+                    incremental.oneGroupStep();
+                    for (int i = 0; i < size; i++) {
+                        for (int j = 0; j < size; j++) {
+                            scan.setColor(i, j, incremental.getColor(i, j));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tiledMatchesDenseTest(){
+        RedBlueGrid tiled = RedBlueGrid.tiled(150,2,0.85,0.5,0.4,5);
+        RedBlueGrid dense = new RedBlueGrid(150,2,0,0,0.4);
+        dense.reset(1.0,0.5,0.4);
+        for (int i = 0; i < 150; i++) {
+            for (int j = 0; j < 150; j++) {
+                dense.setColor(i, j, tiled.getColor(i, j));
+            }
+        }
+        assertEquals(Math.round(150 * 150 * 0.15), tiled.store().residents());
+        for (int i = 0; i < 150; i++) {
+            for (int j = 0; j < 150; j++) {
+                assertEquals(dense.isHappy(i, j), tiled.isHappy(i, j));
+            }
+        }
+        assertEquals(dense.fractionHappy(), tiled.fractionHappy(), 1e-12);
+        long residents = tiled.store().residents();
+        assertTrue(tiled.oneTimeStep() > 0);
+        tiled.simulate(5);
+        assertEquals(residents, tiled.store().residents());
+        assertThrows(IllegalStateException.class, () -> tiled.setIncremental(true));
+    }
+
+    @Test
+    public void tiledSkipsVacantTilesTest(){
+        RedBlueGrid tiled = RedBlueGrid.tiled(4000,1,1.0,0.5,0.3,1);
+        TiledCellStore store = (TiledCellStore) tiled.store();
+        assertEquals(0, store.allocatedTiles());
+        tiled.setColor(3999, 3999, Color.RED);
+        tiled.setColor(3998, 3999, Color.RED);
+        tiled.shiftColor(0, 0);
+        assertEquals(2, store.allocatedTiles());
+        assertEquals(Color.RED, tiled.getColor(0, 0));
+        assertEquals(1.0 / 3.0, tiled.fractionHappy(), 1e-12);
+        tiled.setColor(0, 0, Color.WHITE);
+        assertEquals(1, store.allocatedTiles());
+        assertEquals(0.5, tiled.fractionHappy(), 1e-12);
+    }
+
+    @Test
+    public void mappedCheckpointTest(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("grid.bin");
+        RedBlueGrid grid = RedBlueGrid.mapped(file, 90, 1, 0.3, 0.5, 0.5, 3);
+        grid.setTopology(Topology.TORUS);
+        grid.simulate(3);
+        grid.checkpoint();
+        byte[] atCheckpoint = copyCells(grid, 90);
+        double happyAtCheckpoint = grid.fractionHappy();
+        grid.simulate(4);
+        byte[] afterSteps = copyCells(grid, 90);
+        // changes after the checkpoint, steps or not, reach the file but not its restart point
+        grid.setColor(0, 0, Color.RED);
+        grid.setColor(0, 1, Color.BLUE);
+
+        RedBlueGrid reopened = RedBlueGrid.open(file);
+        assertEquals(Topology.TORUS, reopened.getTopology());
+        assertArrayEquals(atCheckpoint, copyCells(reopened, 90));
+        assertEquals(happyAtCheckpoint, reopened.fractionHappy());
+        reopened.simulate(4);
+        assertArrayEquals(afterSteps, copyCells(reopened, 90));
+        assertThrows(IllegalStateException.class, () -> new RedBlueGrid(10,1,0.2,0.5,0.3).checkpoint());
+    }
+
+    @Test
+    public void snapshotRoundTripTest() throws IOException {
+        for (boolean compress : new boolean[]{false, true}) {
+            RedBlueGrid grid = new RedBlueGrid(37,2,0.2,0.5,0.45,9);
+            grid.setTopology(Topology.REFLECTIVE);
+            grid.simulate(2);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            grid.save(Channels.newChannel(bytes), compress);
+            if (!compress) {
+                assertEquals(40 + (37 * 37 + 3) / 4, bytes.size());
+            }
+            RedBlueGrid loaded = RedBlueGrid.load(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+            assertEquals(Topology.REFLECTIVE, loaded.getTopology());
+            assertSameCells(grid, loaded, 37);
+            grid.simulate(3);
+            loaded.simulate(3);
+            assertSameCells(grid, loaded, 37);
+        }
+        assertThrows(IOException.class, () -> RedBlueGrid.load(Channels.newChannel(new ByteArrayInputStream(new byte[40]))));
+    }
+
+    @Test
+    public void moveLogReplayTest(@TempDir Path dir) throws IOException {
+        RedBlueGrid grid = new RedBlueGrid(40,1,0.25,0.5,0.5,4);
+        List<byte[]> states = new ArrayList<>();
+        // a recorder attached before the log keeps getting the moves and gets the grid back
+        MetricsEngine metrics = new MetricsEngine(grid);
+        metrics.attach();
+        try (MoveLog log = new MoveLog(grid, dir, 4)) {
+            states.add(copyCells(grid, 40));
+            for (int step = 0; step < 11; step++) {
+                if (step % 3 == 0) {
+                    grid.oneTimeStep();
+                } else {
+                    grid.simulate(1);
+                }
+                states.add(copyCells(grid, 40));
+            }
+            assertEquals(11, log.steps());
+        }
+        assertSame(metrics, grid.moveRecorder());
+        assertEquals(new MetricsEngine(grid).measure().segregation(), metrics.segregation());
+        for (int step : new int[]{0, 3, 4, 7, 8, 11}) {
+            RedBlueGrid replayed = MoveLog.replay(dir, step);
+            assertArrayEquals(states.get(step), copyCells(replayed, 40));
+        }
+        assertThrows(IOException.class, () -> MoveLog.replay(dir, 12));
+    }
+
+    @Test
+    public void bitboardMatchesScalarTest(){
+        for (int size : new int[]{1, 2, 3, 8, 63, 64, 65, 130}) {
+            for (double threshold : new double[]{0, 0.3, 1.0 / 3, 0.5, 0.625, 1}) {
+                RedBlueGrid rbGrid = new RedBlueGrid(size,1,0.2,0.5,threshold,size);
+                RedBlueGrid bitboard = new RedBlueGrid(size,1,0.2,0.5,threshold,size);
+                bitboard.setScanEngine(ScanEngine.BITBOARD);
+                Bitboard board = bitboard.prepareBitboard();
+                int[] unhappy = new int[size * size];
+                int unhappyCount = board.collect(unhappy, new int[size * size]);
+                int expected = 0;
+                for (int i = 0; i < size; i++) {
+                    for (int j = 0; j < size; j++) {
+                        if (rbGrid.getCell(i, j) != RedBlueGrid.VACANT && !rbGrid.isHappy(i, j)) {
+                            assertEquals(i * size + j, unhappy[expected++]);
+                        }
+                    }
+                }
+                assertEquals(expected, unhappyCount);
+                for (int step = 0; step < 3; step++) {
+                    assertEquals(rbGrid.fractionHappy(), bitboard.fractionHappy());
+                    assertEquals(rbGrid.oneTimeStep(), bitboard.oneTimeStep());
+                    assertSameCells(rbGrid, bitboard, size);
+                }
+            }
+        }
+    }
+    @Test
+    public void vectorMatchesScalarTest(){
+        for (Topology topology : Topology.values()) {
+            for (int distance : new int[]{1, 2, 5}) {
+                for (int size : new int[]{1, 3, 17, 40}) {
+                    RedBlueGrid rbGrid = new RedBlueGrid(size,distance,0.25,0.5,0.45,size + distance);
+                    RedBlueGrid vector = new RedBlueGrid(size,distance,0.25,0.5,0.45,size + distance);
+                    rbGrid.setTopology(topology);
+                    vector.setTopology(topology);
+                    vector.setScanEngine(ScanEngine.VECTOR);
+                    assertNotNull(vector.prepareVectorKernel());
+                    for (int step = 0; step < 3; step++) {
+                        assertEquals(rbGrid.fractionHappy(), vector.fractionHappy());
+                        assertEquals(rbGrid.oneTimeStep(), vector.oneTimeStep());
+                        assertSameCells(rbGrid, vector, size);
+                    }
+                }
+            }
+        }
+    }
+    @Test
+    public void summedAreaMatchesScanTest(){
+        for (int d = 3; d <= 12; d += 3) {
+            RedBlueGrid rbGrid = new RedBlueGrid(17,d,0.2,0.5,0.45);
+            rbGrid.reset(0.2,0.4,0.45);
+            double happy = 0;
+            double residents = 0;
+            for (int i = 0; i < 17; i++) {
+                for (int j = 0; j < 17; j++) {
+                    if (rbGrid.getCell(i, j) != RedBlueGrid.VACANT) {
+                        residents++;
+                        if (rbGrid.isHappy(i, j)) {
+                            happy++;
+                        }
+                    }
+                }
+            }
+            assertEquals(happy / residents, rbGrid.fractionHappy());
+        }
+    }
+
+    @Test
+    public void incrementalStepsTest(){
+        RedBlueGrid incremental = new RedBlueGrid(16,1,0.2,0.5,0.5);
+        incremental.reset(0.2,0.5,0.5);
+        incremental.setIncremental(true);
+        for (int step = 0; step < 5; step++) {
+            incremental.oneTimeStep();
+            incremental.oneGroupStep();
+            incremental.efficientTimeStep();
+        }
+        RedBlueGrid scan = new RedBlueGrid(16,1,0.2,0.5,0.5);
+        scan.reset(0.2,0.5,0.5);
+        for (int i = 0; i < 16; i++) {
+            for (int j = 0; j < 16; j++) {
+                scan.setColor(i, j, incremental.getColor(i, j));
+            }
+        }
+        assertEquals(scan.fractionHappy(), incremental.fractionHappy());
+    }
+
+    @Test
+    public void incrementalGroupStepRulesTest(){
+        // the same seed in both modes: every resident unhappy at the start leaves home in the dense step, while
+        // the indexed step leaves some of them, made happy by earlier moves, where they are; nobody else moves
+        int size = 30;
+        RedBlueGrid dense = new RedBlueGrid(size,1,0.4,0.5,0.35,21L);
+        RedBlueGrid indexed = new RedBlueGrid(size,1,0.4,0.5,0.35,21L);
+        indexed.setIncremental(true);
+        Set<Long> unhappy = new HashSet<>();
+        int vacant = 0;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                assertEquals(dense.getCell(i, j), indexed.getCell(i, j));
+                if (dense.getCell(i, j) == RedBlueGrid.VACANT) {
+                    vacant++;
+                } else if (!dense.isHappy(i, j)) {
+                    unhappy.add((long) i * size + j);
+                }
+            }
+        }
+        assertTrue(unhappy.size() <= vacant);
+        Set<Long> denseMovers = new HashSet<>();
+        Set<Long> indexedMovers = new HashSet<>();
+        dense.setMoveRecorder(new MoveRecorder() {
+            public void move(long from, long to, byte color) { denseMovers.add(from); }
+            public void endStep() { }
+        });
+        indexed.setMoveRecorder(new MoveRecorder() {
+            public void move(long from, long to, byte color) { indexedMovers.add(from); }
+            public void endStep() { }
+        });
+        assertEquals(unhappy.size(), dense.oneGroupStep());
+        int indexedMoves = indexed.oneGroupStep();
+        assertEquals(unhappy, denseMovers);
+        assertEquals(indexedMoves, indexedMovers.size());
+        assertTrue(unhappy.containsAll(indexedMovers));
+        assertTrue(indexedMoves < unhappy.size());
+        int[] denseCounts = new int[3];
+        int[] indexedCounts = new int[3];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                denseCounts[dense.getCell(i, j)]++;
+                indexedCounts[indexed.getCell(i, j)]++;
+            }
+        }
+        assertArrayEquals(denseCounts, indexedCounts);
+    }
+
+    @Test
+    public void oneTimeStepMovesTest(){
+        RedBlueGrid rbGrid = new RedBlueGrid(10,1,0.3,0.5,0.6);
+        rbGrid.reset(0.3,0.5,0.6);
+        int unhappy = 0;
+        int[] before = new int[3];
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                before[rbGrid.getCell(i, j)]++;
+                if (rbGrid.getCell(i, j) != RedBlueGrid.VACANT && !rbGrid.isHappy(i, j)) {
+                    unhappy++;
+                }
+            }
+        }
+        RedBlueGrid copy = new RedBlueGrid(10,1,0.3,0.5,0.6);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                copy.setColor(i, j, rbGrid.getColor(i, j));
+            }
+        }
+        rbGrid.oneTimeStep();
+        int[] after = new int[3];
+        int moved = 0;
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                after[rbGrid.getCell(i, j)]++;
+                if (copy.getCell(i, j) != RedBlueGrid.VACANT && rbGrid.getCell(i, j) == RedBlueGrid.VACANT) {
+                    moved++;
+                }
+            }
+        }
+        assertArrayEquals(before, after);
+        assertEquals(Math.min(unhappy, before[RedBlueGrid.VACANT]), moved);
+    }
+
+    @Test
+    public void seededRunsAreReproducibleTest(){
+        RedBlueGrid first = new RedBlueGrid(20,1,0.2,0.5,0.5,42L);
+        RedBlueGrid second = new RedBlueGrid(20,1,0.2,0.5,0.5,42L);
+        first.reset(0.2,0.5,0.5,7L);
+        second.reset(0.2,0.5,0.5,7L);
+        assertSameCells(first, second, 20);
+        first.oneTimeStep();
+        second.oneTimeStep();
+        first.simulate(10);
+        second.simulate(10);
+        assertSameCells(first, second, 20);
+
+        RedBlueGrid third = new RedBlueGrid(20,1,0.2,0.5,0.5,
+            RandomGeneratorFactory.of("Xoshiro256PlusPlus").create(3L));
+        RedBlueGrid fourth = new RedBlueGrid(20,1,0.2,0.5,0.5,
+            RandomGeneratorFactory.of("Xoshiro256PlusPlus").create(3L));
+        third.simulate(5);
+        fourth.simulate(5);
+        assertSameCells(third, fourth, 20);
+    }
+
+    @Test
+    public void parallelIndependentOfThreadCountTest(){
+        RedBlueGrid single = new RedBlueGrid(150,1,0.2,0.5,0.5,11L);
+        RedBlueGrid many = new RedBlueGrid(150,1,0.2,0.5,0.5,11L);
+        single.reset(0.2,0.5,0.5,5L);
+        many.reset(0.2,0.5,0.5,5L);
+        double before = single.fractionHappy();
+        single.simulateParallel(4, 1);
+        many.simulateParallel(4, 4);
+        assertSameCells(single, many, 150);
+        assertTrue(single.fractionHappy() > before);
+
+        RedBlueGrid incremental = new RedBlueGrid(150,1,0.2,0.5,0.5,11L);
+        incremental.reset(0.2,0.5,0.5,5L);
+        incremental.setIncremental(true);
+        incremental.simulateParallel(4, 3);
+        assertSameCells(single, incremental, 150);
+    }
+
+    @Test
+    public void ensembleRunnerTest() throws InterruptedException {
+        SweepSpec spec = SweepSpec.parse(new String[]{"size=12", "vacant=0.1,0.3", "threshold=0.3,0.5",
+            "distance=1,2", "seeds=2", "steps=30"});
+        assertEquals(16, spec.runCount());
+        List<RunResult> results = Collections.synchronizedList(new ArrayList<>());
+        new EnsembleRunner(spec, 3).run(results::add);
+        assertEquals(16, results.size());
+        Set<Integer> runs = new HashSet<>();
+        for (RunResult result : results) {
+            runs.add(result.run());
+            assertTrue(result.steps() <= 30);
+            assertEquals(result.converged(), result.fractionHappy() == 1.0);
+            assertTrue(result.segregation() >= 0 && result.segregation() <= 1);
+        }
+        assertEquals(16, runs.size());
+
+        List<RunResult> again = new ArrayList<>();
+        new EnsembleRunner(spec, 1).run(again::add);
+        again.sort(Comparator.comparingInt(RunResult::run));
+        results.sort(Comparator.comparingInt(RunResult::run));
+        for (int i = 0; i < 16; i++) {
+            assertEquals(results.get(i).toCsv(), again.get(i).toCsv());
+        }
+
+        StringWriter csv = new StringWriter();
+        ResultWriter writer = new ResultWriter(csv, ResultWriter.Format.CSV);
+        writer.accept(results.get(0));
+        assertTrue(csv.toString().startsWith(RunResult.CSV_HEADER));
+        assertTrue(results.get(0).toJson().startsWith("{\"run\":0,"));
+    }
+
+    @Test
+    public void simulateUntilStableTest(){
+        RedBlueGrid easy = new RedBlueGrid(20,1,0.2,0.5,0.3,3L);
+        easy.reset(0.2,0.5,0.3,3L);
+        SimulationResult result = easy.simulateUntilStable(1000);
+        assertEquals(SimulationResult.Reason.ALL_HAPPY, result.reason());
+        assertEquals(1.0, result.fractionHappy());
+        assertEquals(SimulationResult.Reason.ALL_HAPPY, easy.simulateUntilStable(1000).reason());
+        assertEquals(0, easy.simulateUntilStable(1000).steps());
+
+        RedBlueGrid full = new RedBlueGrid(10,1,0,0.5,0.9,3L);
+        full.reset(0,0.5,0.9,3L);
+        assertEquals(SimulationResult.Reason.NO_MOVES, full.simulateUntilStable(1000).reason());
+
+        RedBlueGrid impossible = new RedBlueGrid(15,1,0.2,0.5,0.99,3L);
+        impossible.reset(0.2,0.5,0.99,3L);
+        result = impossible.simulateUntilStable(1000, 5, 0.0);
+        assertEquals(SimulationResult.Reason.PLATEAU, result.reason());
+        assertTrue(result.steps() < 1000);
+        assertEquals(SimulationResult.Reason.MAX_STEPS, impossible.simulateUntilStable(3, 50, 0.0).reason());
+    }
+
+    @Test
+    public void simulationWorkerStopTest() throws InterruptedException {
+        RedBlueGrid impossible = new RedBlueGrid(15,1,0.2,0.5,0.99,3L);
+        SimulationResult result = impossible.simulateUntilStable(1000, 1000, 0.0, (steps, happy) -> steps < 4);
+        assertEquals(SimulationResult.Reason.STOPPED, result.reason());
+        assertEquals(4, result.steps());
+
+        List<GridFrame> shown = Collections.synchronizedList(new ArrayList<>());
+        List<SimulationResult> outcome = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        SimulationWorker worker = new SimulationWorker(impossible, 1000, 1000, shown::add, r -> {
+            outcome.add(r);
+            done.countDown();
+        });
+        // paused from the start, so the run holds after its first step until it is stopped
+        worker.pause();
+        worker.execute();
+        worker.stop();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(SimulationResult.Reason.STOPPED, outcome.get(0).reason());
+        assertEquals(1, outcome.get(0).steps());
+        GridFrame last = shown.get(shown.size() - 1);
+        assertEquals(1, last.step());
+        for (int i = 0; i < 15; i++) {
+            for (int j = 0; j < 15; j++) {
+                assertEquals(impossible.getCell(i, j), last.getCell(i, j));
+            }
+        }
+    }
+
+    @Test
+    public void indexedGroupStepTest(){
+        RedBlueGrid rbGrid = new RedBlueGrid(30,2,0.2,0.5,0.5,9L);
+        rbGrid.reset(0.2,0.5,0.5,9L);
+        rbGrid.setIncremental(true);
+        double before = rbGrid.fractionHappy();
+        for (int step = 0; step < 5; step++) {
+            rbGrid.oneGroupStep();
+        }
+        assertTrue(rbGrid.fractionHappy() > before);
+        for (int i = 0; i < 30; i++) {
+            for (int j = 0; j < 30; j++) {
+                if (rbGrid.getCell(i, j) != RedBlueGrid.VACANT) {
+                    continue;
+                }
+                rbGrid.setColor(i, j, Color.RED);
+                boolean redHappy = rbGrid.isHappy(i, j);
+                rbGrid.setColor(i, j, Color.BLUE);
+                boolean blueHappy = rbGrid.isHappy(i, j);
+                rbGrid.setColor(i, j, Color.WHITE);
+                NeighborTracker tracker = rbGrid.tracker();
+                assertEquals(redHappy, tracker.candidates(RedBlueGrid.RED).contains(i * 30 + j));
+                assertEquals(blueHappy, tracker.candidates(RedBlueGrid.BLUE).contains(i * 30 + j));
+            }
+        }
+    }
+
+    @Test
+    public void gridViewDirtySquaresTest(){
+        RedBlueGrid rbGrid = new RedBlueGrid(40,1,0.2,0.5,0.5,6L);
+        GridView view = new GridView(40);
+        view.showAll(rbGrid);
+        List<Integer> moved = new ArrayList<>();
+        rbGrid.setMoveRecorder(new MoveRecorder() {
+            @Override
+            public void move(long from, long to, byte color) {
+                moved.add((int) from);
+                moved.add((int) to);
+            }
+
+            @Override
+            public void endStep() {
+            }
+        });
+        List<GridFrame> frames = new ArrayList<>();
+        for (int step = 1; step <= 3; step++) {
+            moved.clear();
+            rbGrid.oneTimeStep();
+            int[] changed = moved.stream().mapToInt(Integer::intValue).toArray();
+            frames.add(GridFrame.of(rbGrid, step, rbGrid.fractionHappy(), changed));
+        }
+        // the view missed the first two frames, but the coalesced third carries their changes
+        view.show(GridFrame.coalesce(frames));
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 40; j++) {
+                assertEquals(rbGrid.getColor(i, j).getRGB(), view.rgb(i, j));
+            }
+        }
+        // squares in opposite corners are repainted as two boxes, not the whole grid between them
+        assertEquals(List.of(new Rectangle(0, 0, 1, 1), new Rectangle(37, 39, 3, 1)),
+            view.dirtyRegions(new int[]{0, 39 * 40 + 37, 39 * 40 + 39}));
+        // two boxes in one band of rows merge
+        assertEquals(List.of(new Rectangle(2, 1, 4, 3)), view.dirtyRegions(new int[]{40 + 5, 3 * 40 + 2}));
+        // boxes covering a quarter of the grid or more repaint everything
+        assertNull(view.dirtyRegions(new int[]{0, 7 * 40 + 39, 8 * 40, 15 * 40 + 39}));
+
+        // fitted to 160 x 160, each square is 4 pixels wide
+        view.setSize(160, 160);
+        List<int[]> clicks = new ArrayList<>();
+        view.setSquareClickListener((row, col) -> clicks.add(new int[]{row, col}));
+        view.dispatchEvent(new java.awt.event.MouseEvent(view, java.awt.event.MouseEvent.MOUSE_PRESSED, 0, 0, 13, 37, 1, false));
+        view.dispatchEvent(new java.awt.event.MouseEvent(view, java.awt.event.MouseEvent.MOUSE_RELEASED, 0, 0, 13, 37, 1, false));
+        assertEquals(1, clicks.size());
+        assertArrayEquals(new int[]{9, 3}, clicks.get(0));
+    }
+
+    @Test
+    public void gridMetricsTest(){
+        // R R . B
+        // R . B B
+        // . . . B
+        // B . R R
+        RedBlueGrid rbGrid = new RedBlueGrid(4,1,1.0,0.5,0.3,1L);
+        String[] rows = {"RR.B", "R.BB", "...B", "B.RR"};
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                char c = rows[i].charAt(j);
+                rbGrid.setColor(i, j, c == 'R' ? Color.RED : c == 'B' ? Color.BLUE : Color.WHITE);
+            }
+        }
+        GridMetrics metrics = new MetricsEngine(rbGrid).measure();
+        assertArrayEquals(new int[]{3, 2}, metrics.clusterSizes(RedBlueGrid.RED));
+        assertArrayEquals(new int[]{4, 1}, metrics.clusterSizes(RedBlueGrid.BLUE));
+        assertArrayEquals(new int[]{5, 1}, metrics.clusterSizes(RedBlueGrid.VACANT));
+        assertEquals(2, metrics.clusterCount(RedBlueGrid.RED));
+        assertEquals(4, metrics.largestCluster(RedBlueGrid.BLUE));
+        assertEquals(1, metrics.interfaceLength());
+        // (0,0) 2/2, (0,1) 2/3, (1,0) 2/2, (0,3) 2/2, (1,2) 3/4, (1,3) 3/3, (2,3) 2/4, (3,0) none, (3,2) 1/2, (3,3) 1/2
+        double expected = (1 + 2.0 / 3 + 1 + 1 + 0.75 + 1 + 0.5 + 0.5 + 0.5) / 9;
+        assertEquals(expected, metrics.segregation(), 1e-12);
+
+        // kept up to date by the steps, the local measures always equal a fresh measure
+        RedBlueGrid big = new RedBlueGrid(60,1,0.2,0.5,0.5,12L);
+        MetricsEngine live = new MetricsEngine(big);
+        live.attach();
+        double before = live.segregation();
+        for (int step = 0; step < 12; step++) {
+            if (step % 3 == 0) {
+                big.oneTimeStep();
+            } else if (step % 3 == 1) {
+                big.oneGroupStep();
+            } else {
+                big.efficientTimeStep();
+            }
+            GridMetrics fresh = new MetricsEngine(big).measure();
+            assertEquals(fresh.segregation(), live.segregation());
+            assertEquals(fresh.vacancyClustering(), live.vacancyClustering());
+            assertEquals(fresh.interfaceLength(), live.interfaceLength());
+        }
+        assertTrue(live.segregation() > before);
+        live.detach();
+    }
+
+    @Test
+    public void instrumentedStepsTest(@TempDir Path dir) throws IOException {
+        RedBlueGrid rbGrid = new RedBlueGrid(40,1,0.2,0.5,0.5,5L);
+        assertFalse(rbGrid.isInstrumented());
+        rbGrid.oneTimeStep();
+        assertNull(rbGrid.lastStepStats());
+        assertEquals(0, rbGrid.totalStepStats().steps());
+
+        int unhappy = 0;
+        for (int i = 0; i < 40; i++) {
+            for (int j = 0; j < 40; j++) {
+                if (rbGrid.getCell(i, j) != RedBlueGrid.VACANT && !rbGrid.isHappy(i, j)) {
+                    unhappy++;
+                }
+            }
+        }
+        rbGrid.setInstrumented(true);
+        try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+            recording.enable("erehwon.Step");
+            recording.start();
+            int moves = rbGrid.oneTimeStep();
+            StepStats last = rbGrid.lastStepStats();
+            assertEquals(1, last.steps());
+            assertEquals(unhappy, last.unhappy());
+            assertEquals(320, last.vacant());
+            assertEquals(moves, last.moves());
+            assertEquals(0, last.failedProbes());
+            assertTrue(last.classifyNanos() > 0);
+
+            moves += rbGrid.oneGroupStep();
+            assertTrue(rbGrid.lastStepStats().failedProbes() > 0);
+            moves += rbGrid.efficientTimeStep();
+            rbGrid.setIncremental(true);
+            moves += rbGrid.oneGroupStep();
+            rbGrid.simulateParallel(2, 2);
+            StepStats total = rbGrid.totalStepStats();
+            assertEquals(6, total.steps());
+            assertTrue(total.moves() >= moves);
+            assertTrue(total.allocatedBytes() > 0);
+
+            recording.stop();
+            Path file = dir.resolve("steps.jfr");
+            recording.dump(file);
+            List<String> methods = new ArrayList<>();
+            long recordedMoves = 0;
+            for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals("erehwon.Step")) {
+                    methods.add(event.getString("method"));
+                    recordedMoves += event.getLong("moves");
+                    assertEquals(40, event.getInt("size"));
+                }
+            }
+            assertEquals(List.of("oneTimeStep", "oneGroupStep", "efficientTimeStep", "oneGroupStep",
+                "simulateParallel", "simulateParallel"), methods);
+            assertEquals(total.moves(), recordedMoves);
+        }
+
+        rbGrid.setInstrumented(false);
+        rbGrid.oneTimeStep();
+        assertEquals(6, rbGrid.totalStepStats().steps());
+        rbGrid.setInstrumented(true);
+        assertEquals(0, rbGrid.totalStepStats().steps());
+    }
+
+    @Test
+    public void moveStrategyTest() throws InterruptedException {
+        assertTrue(MoveStrategies.names().containsAll(List.of("random", "group", "corner", "mixed")));
+        RedBlueGrid byStrategy = new RedBlueGrid(30,1,0.2,0.5,0.5,9L);
+        RedBlueGrid byHand = new RedBlueGrid(30,1,0.2,0.5,0.5,9L);
+        assertSame(MoveStrategies.MIXED, byStrategy.getMoveStrategy());
+        byStrategy.simulate(3, MoveStrategies.RANDOM);
+        for (int i = 0; i < 3; i++) {
+            byHand.oneTimeStep();
+        }
+        assertSameCells(byHand, byStrategy, 30);
+        byStrategy.setMoveStrategy(MoveStrategies.parse("corner"));
+        byStrategy.simulate(2);
+        byHand.efficientTimeStep();
+        byHand.efficientTimeStep();
+        assertSameCells(byHand, byStrategy, 30);
+
+        int[] counted = new int[1];
+        MoveStrategies.register("counted-group", grid -> {
+            counted[0]++;
+            return grid.oneGroupStep();
+        });
+        byStrategy.setMoveStrategy(MoveStrategies.parse("counted-group:1+random:0"));
+        byStrategy.simulate(4);
+        assertEquals(4, counted[0]);
+        assertThrows(IllegalArgumentException.class, () -> MoveStrategies.parse("nosuch"));
+        assertThrows(IllegalArgumentException.class, () -> MoveStrategies.parse("random:0+group:0"));
+        assertThrows(IllegalArgumentException.class, () -> MoveStrategies.register("a,b", MoveStrategies.GROUP));
+
+        SweepSpec spec = SweepSpec.parse(new String[]{"size=12", "vacant=0.1,0.3", "seeds=2", "steps=30",
+            "strategy=random,corner:1+group:5", "budget=10000"});
+        assertEquals(8, spec.runCount());
+        assertEquals("random", spec.strategy(3));
+        assertEquals("corner:1+group:5", spec.strategy(4));
+        assertEquals(0.1, spec.fractionVacant(4));
+        assertThrows(IllegalArgumentException.class, () -> SweepSpec.parse(new String[]{"strategy=nosuch"}));
+        List<RunResult> results = Collections.synchronizedList(new ArrayList<>());
+        new EnsembleRunner(spec, 2).run(results::add);
+        results.sort(Comparator.comparingInt(RunResult::run));
+        assertEquals("random", results.get(0).strategy());
+        assertEquals("corner:1+group:5", results.get(7).strategy());
+        assertTrue(results.get(7).toCsv().endsWith(",corner:1+group:5"));
+    }
+
+    @Test
+    public void cornerOrderTest(){
+        int[] order = RedBlueGrid.cornerOrder(4);
+        assertArrayEquals(new int[]{0, 1, 4, 2, 5, 8, 3, 6, 9, 12, 13, 10, 7, 14, 11, 15}, order);
+        boolean[] seen = new boolean[37 * 37];
+        for (int idx : RedBlueGrid.cornerOrder(37)) {
+            assertFalse(seen[idx]);
+            seen[idx] = true;
+        }
+
+        // the step moves the same residents whichever way the grid finds them
+        RedBlueGrid scalar = new RedBlueGrid(40,1,0.2,0.5,0.5,8L);
+        RedBlueGrid bitboard = new RedBlueGrid(40,1,0.2,0.5,0.5,8L);
+        RedBlueGrid incremental = new RedBlueGrid(40,1,0.2,0.5,0.5,8L);
+        bitboard.setScanEngine(ScanEngine.BITBOARD);
+        incremental.setIncremental(true);
+        for (int step = 0; step < 4; step++) {
+            int moves = scalar.efficientTimeStep();
+            assertEquals(moves, bitboard.efficientTimeStep());
+            assertEquals(moves, incremental.efficientTimeStep());
+            assertSameCells(scalar, bitboard, 40);
+            assertSameCells(scalar, incremental, 40);
+        }
+    }
+
+    @Test
+    public void ownSquareNeverANeighbourTest(){
+        // a 5 x 5 window on a 2 x 2 torus covers every square several times, the resident's own nine times
+        RedBlueGrid rbGrid = new RedBlueGrid(2,2,0,0,0.3,1L);
+        rbGrid.setTopology(Topology.TORUS);
+        rbGrid.setColor(0, 0, Color.RED);
+        rbGrid.setColor(0, 1, Color.BLUE);
+        rbGrid.setColor(1, 0, Color.BLUE);
+        rbGrid.setColor(1, 1, Color.BLUE);
+        for (ScanEngine engine : ScanEngine.values()) {
+            rbGrid.setScanEngine(engine);
+            assertFalse(rbGrid.isHappy(0, 0));
+            assertTrue(rbGrid.isHappy(0, 1));
+            assertEquals(0.75, rbGrid.fractionHappy());
+        }
+        rbGrid.setIncremental(true);
+        assertFalse(rbGrid.isHappy(0, 0));
+        assertTrue(rbGrid.isHappy(0, 1));
+        assertEquals(0.75, rbGrid.fractionHappy());
+    }
+
+    private static byte[] copyCells(RedBlueGrid grid, int size) {
+        byte[] cells = new byte[size * size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                cells[i * size + j] = grid.getCell(i, j);
+            }
+        }
+        return cells;
+    }
+
+    private static void assertSameCells(RedBlueGrid expected, RedBlueGrid actual, int size) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                assertEquals(expected.getCell(i, j), actual.getCell(i, j));
+            }
+        }
+    }
 }
\ No newline at end of file